@@ -15,8 +15,10 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.io.IOException;
 import java.util.List;
@@ -86,4 +88,21 @@ public class FTSApplication {
         return taskExecutor;
     }
 
+    /**
+     * Factory for TaskScheduler, used on scheduled tasks.
+     * <p/>
+     * Indexers may hold their thread while draining the queue, other tasks (commits, searcher refresh)
+     * must keep running meanwhile.
+     *
+     * @return {@link org.springframework.scheduling.TaskScheduler}
+     */
+    @Bean
+    public TaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(4);
+        taskScheduler.setThreadNamePrefix("scheduler-");
+        taskScheduler.afterPropertiesSet();
+        return taskScheduler;
+    }
+
 }
@@ -1,21 +1,27 @@
 package com.etriphany.fulltext.component.schedule;
 
+import com.etriphany.fulltext.domain.IndexingException;
 import com.etriphany.fulltext.domain.persistent.IndexRequest;
 import com.etriphany.fulltext.service.IndexService;
 import com.etriphany.fulltext.service.QueueService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Content indexer which following behaviours.
  * <ul>
  * <li>Uses a non-cumulative queue consume approach</li>
- * <li>A single indexing request is consumed in each running cycle</li>
- * <li>Many threads can consume requests in parallel (overlap is good).</li>
+ * <li>A block of indexing requests is claimed at once and spread over the task executor threads</li>
+ * <li>Keeps draining blocks while there is backlog, the schedule only matters once the queue is empty</li>
  * </ul>
  *
  * @author cadu.goncalves
@@ -33,32 +39,75 @@ public class ParallelIndexer {
     @Autowired
     private QueueService queueService;
 
+    @Autowired
+    private TaskExecutor taskExecutor;
+
+    // Number of requests claimed on each block (bounds the work handed to the executor)
+    @Value("${fulltext.indexer.parallel.batch}")
+    private Integer batchSize;
+
     /**
      * Task execution endpoint
      */
     @Scheduled(fixedRateString = "${fulltext.indexer.parallel.rate}")
     public void runTask() {
-        consumeIndexRequest();
+        // Drain while there is backlog
+        List<IndexRequest> requests = queueService.getBatchAndLock(batchSize);
+        while (!requests.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            consumeIndexRequests(requests);
+            requests = queueService.getBatchAndLock(batchSize);
+        }
+    }
+
+    /**
+     * Consume a block of index requests in parallel.
+     *
+     * @param requests {@link java.util.List} of locked requests
+     */
+    private void consumeIndexRequests(final List<IndexRequest> requests) {
+        final CountDownLatch done = new CountDownLatch(requests.size());
+        for (IndexRequest request : requests) {
+            taskExecutor.execute(() -> {
+                try {
+                    consumeIndexRequest(request);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        try {
+            // Wait the whole block
+            done.await();
+        } catch (InterruptedException ie) {
+            LOGGER.error(ie);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Consume index requests from queue.
+     * Consume a single index request.
+     *
+     * @param request {@link IndexRequest}
      */
-    private void consumeIndexRequest() {
+    private void consumeIndexRequest(final IndexRequest request) {
         try {
-            // Recover next request
-            IndexRequest request = queueService.getSingleAndLock();
-            if (request != null) {
-                // Index contents
-                indexService.process(request);
-                // Purge request
-                queueService.purge(request);
-                // Flush anything in memory
-                indexService.flush();
+            // Index contents
+            indexService.process(request);
+            // Purge request (commits are grouped, durable ack may delay it)
+            indexService.acknowledge(() -> queueService.purge(request));
+        } catch (IndexingException e) {
+            LOGGER.error(e);
+            if (e.isOverBudget()) {
+                // Retrying would fail again
+                queueService.fail(request, e.getReason());
+            } else {
+                queueService.retry(request, e.getReason());
             }
         } catch (Exception e) {
             LOGGER.error(e);
             e.printStackTrace();
+            queueService.retry(request, String.valueOf(e));
         }
     }
 }
@@ -0,0 +1,240 @@
+package com.etriphany.fulltext.component.schedule;
+
+import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import com.etriphany.fulltext.domain.util.Timing;
+import com.etriphany.fulltext.service.IndexService;
+import com.etriphany.fulltext.service.QueueService;
+import com.etriphany.fulltext.service.core.ExtractedContent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content indexer which following behaviours.
+ * <ul>
+ * <li>Indexing is split in stages, each one with its own thread pool: extraction (Tika parsing and language
+ * detection) and writing (analysis and index write, both happen inside the index writer)</li>
+ * <li>Stages are connected by bounded queues, a full queue blocks the previous stage (backpressure), so slow
+ * parsing no longer holds index writes and a slow writer does not pile up extracted contents</li>
+ * <li>Queue depth and service time of each stage are reported, so pools can be sized</li>
+ * </ul>
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+@Profile("pipeline-indexer")
+public class PipelineIndexer {
+
+    private static final Logger LOGGER = LogManager.getLogger(PipelineIndexer.class.getName());
+
+    @Autowired
+    private IndexService indexService;
+
+    @Autowired
+    private QueueService queueService;
+
+    // Number of requests claimed on each block
+    @Value("${fulltext.indexer.pipeline.batch}")
+    private Integer batchSize;
+
+    // Capacity of each stage queue
+    @Value("${fulltext.indexer.pipeline.capacity}")
+    private Integer capacity;
+
+    @Value("${fulltext.indexer.pipeline.extract.threads}")
+    private Integer extractThreads;
+
+    @Value("${fulltext.indexer.pipeline.write.threads}")
+    private Integer writeThreads;
+
+    private Stage extractStage;
+
+    private Stage writeStage;
+
+    @PostConstruct
+    public void init() {
+        extractStage = new Stage("extract", extractThreads, capacity);
+        writeStage = new Stage("write", writeThreads, capacity);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Claimed requests that do not finish stay locked, as with the other indexers
+        extractStage.shutdown();
+        writeStage.shutdown();
+    }
+
+    /**
+     * Task execution endpoint
+     */
+    @Scheduled(fixedRateString = "${fulltext.indexer.pipeline.rate}")
+    public void runTask() {
+        // Drain while there is backlog, blocks while the extraction queue is full
+        List<IndexRequest> requests = queueService.getBatchAndLock(batchSize);
+        while (!requests.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            for (IndexRequest request : requests) {
+                extractStage.submit(() -> extract(request));
+            }
+            requests = queueService.getBatchAndLock(batchSize);
+        }
+    }
+
+    /**
+     * Stages metrics.
+     *
+     * @return {@link java.util.Map}
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(extractStage.name, extractStage.toMap());
+        stats.put(writeStage.name, writeStage.toMap());
+        return stats;
+    }
+
+    /**
+     * Extraction stage.
+     *
+     * @param request {@link IndexRequest}
+     */
+    private void extract(final IndexRequest request) {
+        try {
+            final ExtractedContent extracted = indexService.extract(request);
+            if (extracted == null) {
+                // Nothing to write
+                indexService.acknowledge(() -> queueService.purge(request));
+                return;
+            }
+            try {
+                writeStage.submit(() -> write(extracted));
+            } catch (RejectedExecutionException ree) {
+                // Never reaches the write stage (shut down or interrupted), release its spool
+                try {
+                    extracted.close();
+                } catch (IOException ioe) {
+                    LOGGER.error(ioe);
+                }
+                throw ree;
+            }
+        } catch (IndexingException e) {
+            LOGGER.error(e);
+            if (e.isOverBudget()) {
+                // Retrying would fail again
+                queueService.fail(request, e.getReason());
+            } else {
+                queueService.retry(request, e.getReason());
+            }
+        } catch (Exception e) {
+            LOGGER.error(e);
+            e.printStackTrace();
+            queueService.retry(request, String.valueOf(e));
+        }
+    }
+
+    /**
+     * Write stage.
+     *
+     * @param extracted {@link ExtractedContent}
+     */
+    private void write(final ExtractedContent extracted) {
+        try {
+            indexService.write(extracted);
+            // Purge request (commits are grouped, durable ack may delay it)
+            indexService.acknowledge(() -> queueService.purge(extracted.getRequest()));
+        } catch (Exception e) {
+            LOGGER.error(e);
+            e.printStackTrace();
+            queueService.retry(extracted.getRequest(), String.valueOf(e));
+        }
+    }
+
+    /**
+     * Pipeline stage: fixed thread pool fed by a bounded queue.
+     */
+    private static final class Stage {
+
+        private final String name;
+
+        private final int capacity;
+
+        private final ThreadPoolExecutor executor;
+
+        // Time spent on each task
+        private final Timing service = new Timing();
+
+        // Time each task waited on the queue
+        private final Timing wait = new Timing();
+
+        Stage(String name, int threads, int capacity) {
+            final AtomicInteger counter = new AtomicInteger();
+            this.name = name;
+            this.capacity = capacity;
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacity),
+                    runnable -> new Thread(runnable, name + "-" + counter.incrementAndGet()),
+                    (runnable, pool) -> {
+                        // Backpressure, the producer waits for room
+                        try {
+                            if (pool.isShutdown()) {
+                                throw new RejectedExecutionException("Stage " + name + " is shut down");
+                            }
+                            pool.getQueue().put(runnable);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(ie);
+                        }
+                    });
+        }
+
+        /**
+         * Hand a task over to the stage, blocks while the queue is full.
+         *
+         * @param task Stage task
+         */
+        void submit(final Runnable task) {
+            final long queued = System.nanoTime();
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                wait.record(start - queued);
+                try {
+                    task.run();
+                } finally {
+                    service.record(System.nanoTime() - start);
+                }
+            });
+        }
+
+        void shutdown() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("threads", executor.getMaximumPoolSize());
+            map.put("active", executor.getActiveCount());
+            map.put("depth", executor.getQueue().size());
+            map.put("capacity", capacity);
+            map.put("wait", wait.toMap());
+            map.put("service", service.toMap());
+            return map;
+        }
+    }
+}
@@ -65,14 +65,9 @@ public class Serialndexer {
             // Delimit the input with a lock state
             queueService.lockAll();
 
-            // Compute basic paging stuff
-            Integer total = queueService.countLockedRequests();
-            Integer pages = queueService.computePages(total);
-
-            // Process each request
-            for (int page = 0; page < pages; ++page) {
-                List<IndexRequest> requests = queueService.getLockedRequests(page);
-
+            // Process each request, paging from the last one seen (statuses change as the queue is walked)
+            List<IndexRequest> requests = queueService.getLockedRequests(null);
+            while (!requests.isEmpty()) {
                 for (IndexRequest request : requests) {
                     try {
                         // Index contents
@@ -81,15 +76,22 @@ public class Serialndexer {
                         queueService.consume(request);
                     } catch (IndexingException e) {
                         LOGGER.error(e);
+                        if (e.isOverBudget()) {
+                            // Retrying would fail again
+                            queueService.fail(request, e.getReason());
+                        } else {
+                            queueService.retry(request, e.getReason());
+                        }
                     }
                 }
+                requests = queueService.getLockedRequests(requests.get(requests.size() - 1));
             }
 
-            // Purge consumed when done
-            queueService.purgeConsumed();
-
             // Flush anything in memory
             indexService.flush();
+
+            // Purge consumed when safe on disk
+            queueService.purgeConsumed();
         } catch (Exception e) {
             LOGGER.error(e);
             e.printStackTrace();
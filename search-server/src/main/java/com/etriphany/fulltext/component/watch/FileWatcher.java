@@ -0,0 +1,289 @@
+package com.etriphany.fulltext.component.watch;
+
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import com.etriphany.fulltext.service.QueueService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Turns filesystem changes under the watched roots into index requests.
+ * <p/>
+ * Event storms (an editor saving the same file many times, a checkout touching thousands of files) are coalesced
+ * per path: a change only reaches the queue once its path stays quiet for the debounce window, as a single net
+ * operation (see {@link ContentOperation#coalesce(ContentOperation, ContentOperation)}).
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "fulltext.watch.enabled", havingValue = "true")
+public class FileWatcher {
+
+    private static final Logger LOGGER = LogManager.getLogger(FileWatcher.class.getName());
+
+    // A path under continuous change is flushed anyway after this number of debounce windows
+    private static final int MAX_WINDOWS = 10;
+
+    @Autowired
+    private QueueService queueService;
+
+    // Watched root directories (comma separated)
+    @Value("${fulltext.watch.roots}")
+    private String[] roots;
+
+    // Quiet time before a change is queued
+    @Value("${fulltext.watch.debounce}")
+    private Long debounce;
+
+    // Pending changes by path
+    private final ConcurrentMap<Path, PendingChange> pending = new ConcurrentHashMap<>();
+
+    // Watched directories by key
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    // Events received
+    private final AtomicLong events = new AtomicLong();
+
+    // Requests sent to the queue
+    private final AtomicLong queued = new AtomicLong();
+
+    private WatchService watchService;
+
+    private Thread watcher;
+
+    @PostConstruct
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String root : roots) {
+            if (!root.trim().isEmpty()) {
+                register(Paths.get(root.trim()).toAbsolutePath().normalize(), null);
+            }
+        }
+        watcher = new Thread(this::watch, "file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        watcher.interrupt();
+        watchService.close();
+        // Do not lose what is pending
+        flush(true);
+    }
+
+    /**
+     * Queue changes that are quiet for the debounce window.
+     */
+    @Scheduled(fixedDelayString = "${fulltext.watch.debounce}")
+    public void runTask() {
+        flush(false);
+    }
+
+    /**
+     * Recover the number of filesystem events received.
+     *
+     * @return Number of events
+     */
+    public long getEvents() {
+        return events.get();
+    }
+
+    /**
+     * Recover the number of requests sent to the queue.
+     *
+     * @return Number of requests
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Recover the number of changes waiting for the debounce window.
+     *
+     * @return Number of paths
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Watch loop.
+     */
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                events.incrementAndGet();
+                if (event.kind() == OVERFLOW) {
+                    // Events were lost, rescan (unchanged files are skipped by their fingerprint)
+                    LOGGER.warn("Too many changes, rescanning " + directory);
+                    register(directory, ContentOperation.UPDATE);
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_DELETE) {
+                    change(path, ContentOperation.DELETE);
+                } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == ENTRY_CREATE) {
+                        // New tree, its files may have been created before it was watched (or moved in, indexed)
+                        register(path, ContentOperation.UPDATE);
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    // Created files may be indexed already (editors save by renaming a temporary file over them)
+                    change(path, ContentOperation.UPDATE);
+                }
+            }
+
+            if (!key.reset()) {
+                directories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Watch a directory tree.
+     *
+     * @param root      Tree root
+     * @param operation Operation registered for existing files (null to ignore them)
+     */
+    private void register(Path root, final ContentOperation operation) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (operation != null && attrs.isRegularFile()) {
+                        change(file, operation);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    LOGGER.error(exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+        }
+    }
+
+    /**
+     * Register a change, folding it with any pending change on the same path.
+     *
+     * @param path      Changed file
+     * @param operation Index operation
+     */
+    private void change(Path path, ContentOperation operation) {
+        final long now = System.currentTimeMillis();
+        pending.compute(path, (p, previous) -> {
+            if (previous == null) {
+                return new PendingChange(operation, now);
+            }
+            previous.operation = ContentOperation.coalesce(previous.operation, operation);
+            previous.lastSeen = now;
+            return previous;
+        });
+    }
+
+    /**
+     * Send pending changes to the queue.
+     *
+     * @param all Ignore the debounce window
+     */
+    private void flush(boolean all) {
+        long now = System.currentTimeMillis();
+        List<IndexRequest> requests = new ArrayList<>();
+        Iterator<Map.Entry<Path, PendingChange>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingChange> entry = iterator.next();
+            PendingChange change = entry.getValue();
+            boolean quiet = now - change.lastSeen >= debounce;
+            boolean overdue = now - change.firstSeen >= debounce * MAX_WINDOWS;
+            if ((all || quiet || overdue) && pending.remove(entry.getKey(), change) && change.operation != null) {
+                requests.add(buildRequest(entry.getKey(), change.operation));
+            }
+        }
+
+        if (!requests.isEmpty()) {
+            queueService.addAll(requests);
+            queued.addAndGet(requests.size());
+            LOGGER.debug("Queued " + requests.size() + " changes");
+        }
+    }
+
+    /**
+     * Build the index request for a changed file.
+     *
+     * @param path      Changed file
+     * @param operation Index operation
+     * @return {@link IndexRequest}
+     */
+    private static IndexRequest buildRequest(Path path, ContentOperation operation) {
+        Content content = new Content();
+        content.setId(path.toString());
+        content.setPath(path.toString());
+
+        IndexRequest request = new IndexRequest();
+        request.setContent(content);
+        request.setOperation(operation);
+        request.setPriority(IndexRequestPriority.INTERACTIVE);
+        return request;
+    }
+
+    /**
+     * Change waiting for the debounce window.
+     */
+    private static final class PendingChange {
+
+        // Net operation (null means nothing to do)
+        private ContentOperation operation;
+
+        private final long firstSeen;
+
+        private long lastSeen;
+
+        PendingChange(ContentOperation operation, long seen) {
+            this.operation = operation;
+            this.firstSeen = seen;
+            this.lastSeen = seen;
+        }
+    }
+}
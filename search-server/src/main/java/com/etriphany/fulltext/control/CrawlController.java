@@ -0,0 +1,54 @@
+package com.etriphany.fulltext.control;
+
+import com.etriphany.fulltext.domain.io.CrawlRequest;
+import com.etriphany.fulltext.domain.io.CrawlStatus;
+import com.etriphany.fulltext.service.CrawlService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Directory crawling controller.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@RestController
+public class CrawlController {
+
+    @Autowired
+    private CrawlService crawlService;
+
+    /**
+     * Start crawling a directory, files found are queued for indexing.
+     *
+     * @param request {@link CrawlRequest}
+     * @return {@link CrawlStatus} (null if request is invalid)
+     */
+    @RequestMapping(value = "/crawl", method = RequestMethod.POST)
+    public Callable<CrawlStatus> crawl(@RequestBody final CrawlRequest request) {
+        return () -> {
+            try {
+                return crawlService.start(request);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Show crawl progress.
+     *
+     * @param id Crawl id
+     * @return {@link CrawlStatus} (null if unknown)
+     */
+    @RequestMapping(value = "/crawl/{id}", method = RequestMethod.GET)
+    public Callable<CrawlStatus> status(@PathVariable("id") final String id) {
+        return () -> crawlService.getStatus(id);
+    }
+}
@@ -0,0 +1,74 @@
+package com.etriphany.fulltext.control;
+
+import com.etriphany.fulltext.domain.io.CrawlRequest;
+import com.etriphany.fulltext.domain.io.IndexResponse;
+import com.etriphany.fulltext.domain.io.RebuildStatus;
+import com.etriphany.fulltext.service.IndexService;
+import com.etriphany.fulltext.service.RebuildService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Index management controller.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@RestController
+public class IndexController {
+
+    @Autowired
+    private IndexService indexService;
+
+    @Autowired
+    private RebuildService rebuildService;
+
+    /**
+     * Start rebuilding all indexes from a directory, the live indexes are replaced once the rebuild is done.
+     *
+     * @param request {@link CrawlRequest} (operation is ignored)
+     * @return {@link RebuildStatus} (null if request is invalid or a rebuild is already running)
+     */
+    @RequestMapping(value = "/index/rebuild", method = RequestMethod.POST)
+    public Callable<RebuildStatus> rebuild(@RequestBody final CrawlRequest request) {
+        return () -> {
+            try {
+                return rebuildService.start(request);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Show rebuild progress.
+     *
+     * @param id Rebuild id
+     * @return {@link RebuildStatus} (null if unknown)
+     */
+    @RequestMapping(value = "/index/rebuild/{id}", method = RequestMethod.GET)
+    public Callable<RebuildStatus> rebuildStatus(@PathVariable("id") final String id) {
+        return () -> rebuildService.getStatus(id);
+    }
+
+    /**
+     * Start or finish a bulk load.
+     *
+     * @param enabled Bulk load profile
+     * @return {@link IndexResponse}
+     */
+    @RequestMapping(value = "/index/bulk", method = RequestMethod.POST)
+    public Callable<IndexResponse> bulk(@RequestParam("enabled") final boolean enabled) {
+        return () -> {
+            indexService.setBulkLoad(enabled);
+            return new IndexResponse(true, enabled ? "Bulk load started" : "Bulk load finished");
+        };
+    }
+}
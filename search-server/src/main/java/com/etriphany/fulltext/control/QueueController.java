@@ -1,6 +1,7 @@
 package com.etriphany.fulltext.control;
 
 import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import com.etriphany.fulltext.domain.io.BatchResponse;
 import com.etriphany.fulltext.domain.io.IndexResponse;
 import com.etriphany.fulltext.service.QueueService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.InputStream;
 import java.util.concurrent.Callable;
 
 /**
@@ -40,4 +42,17 @@ public class QueueController {
             }
         };
     }
+
+    /**
+     * Queue many content indexing requests at once.
+     * <p/>
+     * Body is a JSON array of requests or NDJSON (one request per line), read as a stream.
+     *
+     * @param input Request body
+     * @return {@link BatchResponse}
+     */
+    @RequestMapping(value = "/queue/batch", method = RequestMethod.POST)
+    public Callable<BatchResponse> queueBatch(final InputStream input) {
+        return () -> queueService.addAll(input);
+    }
 }
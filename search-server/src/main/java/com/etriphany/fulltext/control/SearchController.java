@@ -5,10 +5,12 @@ import com.etriphany.fulltext.domain.io.SearchResponse;
 import com.etriphany.fulltext.domain.SearchException;
 import com.etriphany.fulltext.service.SearchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.ArrayList;
 import java.util.concurrent.Callable;
@@ -29,14 +31,20 @@ public class SearchController {
      * Search contents.
      *
      * @param request {@link SearchRequest}
-     * @return {@link SearchResponse}
+     * @return {@link SearchResponse} (410 Gone if the deep paging cursor expired)
      */
     @RequestMapping(value = "/search", method = RequestMethod.POST)
     public Callable<SearchResponse> search(@RequestBody final SearchRequest request) {
         return () -> {
             try {
                 return searchService.search(request);
-            } catch (IllegalArgumentException | SearchException e) {
+            } catch (SearchException e) {
+                if (e.getType() == SearchException.ErrorType.CURSOR_EXPIRED) {
+                    // Next pages of a dead cursor can't be told apart from an empty result
+                    throw new ResponseStatusException(HttpStatus.GONE, "Deep paging cursor expired");
+                }
+                return new SearchResponse(new ArrayList<>(), 0, "");
+            } catch (IllegalArgumentException e) {
                 return new SearchResponse(new ArrayList<>(), 0, "");
             }
         };
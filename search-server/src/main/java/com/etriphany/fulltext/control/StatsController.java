@@ -0,0 +1,33 @@
+package com.etriphany.fulltext.control;
+
+import com.etriphany.fulltext.service.StatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Runtime metrics controller.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@RestController
+public class StatsController {
+
+    @Autowired
+    private StatsService statsService;
+
+    /**
+     * Show runtime metrics.
+     *
+     * @return {@link java.util.Map} of metrics grouped by component
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    public Callable<Map<String, Object>> stats() {
+        return () -> statsService.collect();
+    }
+}
@@ -19,13 +19,38 @@ public final class IndexingException extends Exception {
         this.type = type;
     }
 
+    public IndexingException(ErrorType type, String message) {
+        super(message);
+        this.type = type;
+    }
+
     public ErrorType getType() {
         return type;
     }
 
+    /**
+     * Check if the content went over the extraction budget (retrying would fail again).
+     *
+     * @return True if over budget
+     */
+    public boolean isOverBudget() {
+        return type == ErrorType.EXTRACTION_TIMEOUT || type == ErrorType.EXTRACTION_CRASH;
+    }
+
+    /**
+     * Describe the failure.
+     *
+     * @return Failure reason
+     */
+    public String getReason() {
+        return getMessage() == null ? type.toString() : type + ": " + getMessage();
+    }
+
     public enum ErrorType {
         NULL_CONTENT,
         CONTENT_NOT_FILE,
-        INPUT_OUTPUT_FAILURE
+        INPUT_OUTPUT_FAILURE,
+        EXTRACTION_TIMEOUT,
+        EXTRACTION_CRASH
     }
 }
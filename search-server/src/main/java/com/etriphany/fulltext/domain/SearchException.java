@@ -26,6 +26,7 @@ public class SearchException extends Exception {
     public enum ErrorType {
         NO_IDEX,
         QUERY_PARSE_FAILURE,
-        INPUT_OUTPUT_FAILURE
+        INPUT_OUTPUT_FAILURE,
+        CURSOR_EXPIRED
     }
 }
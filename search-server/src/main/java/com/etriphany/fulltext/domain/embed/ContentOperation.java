@@ -9,5 +9,31 @@ package com.etriphany.fulltext.domain.embed;
 public enum ContentOperation {
     ADD,
     UPDATE,
-    DELETE
+    DELETE;
+
+    /**
+     * Fold two pending operations on the same content into a single net operation.
+     * <ul>
+     * <li>Anything followed by DELETE becomes DELETE</li>
+     * <li>ADD followed by DELETE becomes nothing</li>
+     * <li>ADD followed by ADD stays ADD</li>
+     * <li>Any other combination becomes UPDATE</li>
+     * </ul>
+     *
+     * @param first First operation (null if none)
+     * @param then  Following operation
+     * @return Net operation (null means nothing to do)
+     */
+    public static ContentOperation coalesce(ContentOperation first, ContentOperation then) {
+        if (first == null) {
+            return then;
+        }
+        if (then == DELETE) {
+            return first == ADD ? null : DELETE;
+        }
+        if (first == ADD && then == ADD) {
+            return ADD;
+        }
+        return UPDATE;
+    }
 }
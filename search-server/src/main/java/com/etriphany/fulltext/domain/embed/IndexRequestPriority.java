@@ -0,0 +1,33 @@
+package com.etriphany.fulltext.domain.embed;
+
+/**
+ * Defines the priority lane of an index request inside the queue.
+ * <p/>
+ * Each lane keeps its own queue order, lanes are claimed by weight so bulk loads can not starve interactive changes.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public enum IndexRequestPriority {
+    // Changes a user waits for (single requests, watched files)
+    INTERACTIVE,
+    // Mass loads (crawls, batches)
+    BULK;
+
+    /**
+     * Pick the most urgent of two priorities.
+     *
+     * @param first First priority (null if none)
+     * @param then  Second priority (null if none)
+     * @return Most urgent priority
+     */
+    public static IndexRequestPriority highest(IndexRequestPriority first, IndexRequestPriority then) {
+        if (first == null) {
+            return then;
+        }
+        if (then == null) {
+            return first;
+        }
+        return first.ordinal() <= then.ordinal() ? first : then;
+    }
+}
@@ -9,5 +9,6 @@ package com.etriphany.fulltext.domain.embed;
 public enum IndexRequestStatus {
     QUEUED,
     LOCKED,
-    CONSUMED
+    CONSUMED,
+    FAILED
 }
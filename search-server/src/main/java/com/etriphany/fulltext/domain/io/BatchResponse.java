@@ -0,0 +1,38 @@
+package com.etriphany.fulltext.domain.io;
+
+/**
+ * Defines a response for batch content indexing.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class BatchResponse extends IndexResponse {
+
+    // Requests added to the queue
+    private final long accepted;
+
+    // Requests already on the queue
+    private final long duplicated;
+
+    // Requests rejected (missing content or operation)
+    private final long invalid;
+
+    public BatchResponse(Boolean success, String message, long accepted, long duplicated, long invalid) {
+        super(success, message);
+        this.accepted = accepted;
+        this.duplicated = duplicated;
+        this.invalid = invalid;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getDuplicated() {
+        return duplicated;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+}
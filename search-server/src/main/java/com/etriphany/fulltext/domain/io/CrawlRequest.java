@@ -0,0 +1,75 @@
+package com.etriphany.fulltext.domain.io;
+
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Defines a request for directory crawling.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class CrawlRequest implements Serializable {
+
+    // Crawl root directory
+    private String root;
+
+    // Glob patterns of files to include, relative to root (empty means all)
+    private List<String> includes;
+
+    // Glob patterns of files and directories to exclude, relative to root
+    private List<String> excludes;
+
+    // Index operation applied to crawled files
+    private ContentOperation operation = ContentOperation.UPDATE;
+
+    public String getRoot() {
+        return root;
+    }
+
+    public void setRoot(String root) {
+        this.root = root;
+    }
+
+    public List<String> getIncludes() {
+        if (includes == null) {
+            includes = Collections.emptyList();
+        }
+        return includes;
+    }
+
+    public void setIncludes(List<String> includes) {
+        this.includes = includes;
+    }
+
+    public List<String> getExcludes() {
+        if (excludes == null) {
+            excludes = Collections.emptyList();
+        }
+        return excludes;
+    }
+
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    public ContentOperation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(ContentOperation operation) {
+        this.operation = operation;
+    }
+
+    public Boolean isValid() {
+        return root != null && !root.isEmpty() && operation != null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CrawlRequest:{ root = %s, operation = %s }", root == null ? "null" : root, operation);
+    }
+}
@@ -0,0 +1,115 @@
+package com.etriphany.fulltext.domain.io;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defines the progress of a directory crawling.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class CrawlStatus implements Serializable {
+
+    // Crawl id
+    private final String id;
+
+    // Crawl root directory
+    private final String root;
+
+    // Start time in milliseconds
+    private final long startedAt;
+
+    // Finish time in milliseconds (0 while running)
+    private volatile long finishedAt;
+
+    // Visited directories
+    private final AtomicLong directories = new AtomicLong();
+
+    // Files sent to the queue
+    private final AtomicLong queued = new AtomicLong();
+
+    // Files not matching the patterns
+    private final AtomicLong ignored = new AtomicLong();
+
+    // Unreadable files and directories
+    private final AtomicLong errors = new AtomicLong();
+
+    public CrawlStatus(String id, String root) {
+        this.id = id;
+        this.root = root;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void finish() {
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    public Boolean isRunning() {
+        return finishedAt == 0;
+    }
+
+    public long getDirectories() {
+        return directories.get();
+    }
+
+    public void addDirectory() {
+        directories.incrementAndGet();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public void addQueued(long count) {
+        queued.addAndGet(count);
+    }
+
+    public long getIgnored() {
+        return ignored.get();
+    }
+
+    public void addIgnored() {
+        ignored.incrementAndGet();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void addError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Compute crawl throughput.
+     *
+     * @return Files queued per second
+     */
+    public double getFilesPerSecond() {
+        long end = isRunning() ? System.currentTimeMillis() : finishedAt;
+        long elapsed = Math.max(1, end - startedAt);
+        return queued.get() * 1000d / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CrawlStatus:{ id = %s, root = %s, queued = %d }", id, root, queued.get());
+    }
+}
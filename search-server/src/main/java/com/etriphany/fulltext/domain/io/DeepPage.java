@@ -2,6 +2,9 @@ package com.etriphany.fulltext.domain.io;
 
 /**
  * Provides deep pagination support.
+ * <p/>
+ * The mark is the last document of a page, on the searcher pinned by a cursor (marks without a live cursor restart
+ * from the first page).
  *
  * @author cadu.goncalves
  *
@@ -11,6 +14,9 @@ public class DeepPage {
     // Parsing delimiter
     private static final String DELIMITER = ":";
 
+    // Cursor that pins the searcher (optional)
+    private final String cursor;
+
     // Marked document
     private final Integer doc;
 
@@ -20,14 +26,20 @@ public class DeepPage {
     /**
      * Constructor.
      *
+     * @param cursor Cursor that pins the searcher
      * @param doc Marked document
      * @param score Marked score
      */
-    public DeepPage(Integer doc, Float score) {
+    public DeepPage(String cursor, Integer doc, Float score) {
+        this.cursor = cursor;
         this.doc = doc;
         this.score = score;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
     public Integer getDoc() {
         return doc;
     }
@@ -38,7 +50,7 @@ public class DeepPage {
 
     @Override
     public String toString() {
-        return doc + DELIMITER + score;
+        return (cursor == null ? "" : cursor + DELIMITER) + doc + DELIMITER + score;
     }
 
     /**
@@ -53,8 +65,11 @@ public class DeepPage {
         }
         String[] parts = value.split(DELIMITER);
         try {
-            return new DeepPage(Integer.valueOf(parts[0]), Float.valueOf(parts[1]));
-        }catch(NumberFormatException nfe) {
+            if (parts.length == 3) {
+                return new DeepPage(parts[0], Integer.valueOf(parts[1]), Float.valueOf(parts[2]));
+            }
+            return new DeepPage(null, Integer.valueOf(parts[0]), Float.valueOf(parts[1]));
+        }catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
             return null;
         }
     }
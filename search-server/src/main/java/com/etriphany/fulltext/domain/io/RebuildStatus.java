@@ -0,0 +1,155 @@
+package com.etriphany.fulltext.domain.io;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defines the progress of an offline index rebuild.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class RebuildStatus implements Serializable {
+
+    public enum Phase {
+        DRAINING,
+        BUILDING,
+        MERGING,
+        DONE,
+        FAILED
+    }
+
+    // Rebuild id
+    private final String id;
+
+    // Rebuild root directory
+    private final String root;
+
+    // Number of partitions built in parallel
+    private final int partitions;
+
+    // Start time in milliseconds
+    private final long startedAt;
+
+    // Finish time in milliseconds (0 while running)
+    private volatile long finishedAt;
+
+    private volatile Phase phase = Phase.DRAINING;
+
+    // Failure cause (FAILED phase)
+    private volatile String error;
+
+    // Languages rebuilt
+    private final Set<String> languages = ConcurrentHashMap.newKeySet();
+
+    // Files found
+    private final AtomicLong files = new AtomicLong();
+
+    // Files indexed
+    private final AtomicLong indexed = new AtomicLong();
+
+    // Files not indexed
+    private final AtomicLong errors = new AtomicLong();
+
+    public RebuildStatus(String id, String root, int partitions) {
+        this.id = id;
+        this.root = root;
+        this.partitions = partitions;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void finish() {
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    public Boolean isRunning() {
+        return finishedAt == 0;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void fail(String error) {
+        this.error = error;
+        this.phase = Phase.FAILED;
+    }
+
+    public Set<String> getLanguages() {
+        return languages;
+    }
+
+    public void addLanguage(String language) {
+        languages.add(language);
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public void addFile() {
+        files.incrementAndGet();
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public void addIndexed() {
+        indexed.incrementAndGet();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void addError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Compute rebuild throughput.
+     *
+     * @return Files indexed per second
+     */
+    public double getFilesPerSecond() {
+        long end = isRunning() ? System.currentTimeMillis() : finishedAt;
+        long elapsed = Math.max(1, end - startedAt);
+        return indexed.get() * 1000d / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RebuildStatus:{ id = %s, root = %s, phase = %s, indexed = %d }", id, root, phase, indexed.get());
+    }
+}
@@ -2,6 +2,7 @@ package com.etriphany.fulltext.domain.persistent;
 
 import com.etriphany.fulltext.domain.embed.Content;
 import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
 import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
 
 import java.io.Serializable;
@@ -23,6 +24,18 @@ public final class IndexRequest implements Serializable {
     // Request processing status
     private IndexRequestStatus status;
 
+    // Priority lane
+    private IndexRequestPriority priority;
+
+    // Queue time (epoch milliseconds), known once stored
+    private Long queuedAt;
+
+    // Queue sequence (identifies the stored request), known once stored
+    private Long sequence;
+
+    // Number of times the request was claimed, this one included (known once claimed)
+    private int attempts;
+
     public Content getContent() {
         return content;
     }
@@ -47,6 +60,38 @@ public final class IndexRequest implements Serializable {
         this.status = status;
     }
 
+    public IndexRequestPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(IndexRequestPriority priority) {
+        this.priority = priority;
+    }
+
+    public Long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(Long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
     public Boolean isValid() {
         if(content == null || operation == null) {
             return false;
@@ -57,6 +102,6 @@ public final class IndexRequest implements Serializable {
 
     @Override
     public String toString() {
-        return String.format("IndexRequest:{ content = %s, operation = %s }", content == null ? "null" : content, operation);
+        return String.format("IndexRequest:{ content = %s, operation = %s, priority = %s }", content == null ? "null" : content, operation, priority);
     }
 }
@@ -18,6 +18,12 @@ public final class FieldNames {
 
     public static final String OPERATION = "operation";
 
+    public static final String SIZE = "size";
+
+    public static final String MODIFIED = "modified";
+
+    public static final String HASH = "hash";
+
     private FieldNames() {
 
     }
@@ -0,0 +1,68 @@
+package com.etriphany.fulltext.domain.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe window over the latest samples of a value, for percentiles.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class Percentiles {
+
+    // Latest samples (ring)
+    private final long[] samples;
+
+    // Number of samples ever recorded
+    private long count;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of latest samples kept
+     */
+    public Percentiles(int size) {
+        this.samples = new long[size];
+    }
+
+    /**
+     * Register a sample.
+     *
+     * @param value Sample value
+     */
+    public synchronized void record(long value) {
+        samples[(int) (count++ % samples.length)] = value;
+    }
+
+    /**
+     * Snapshot for reporting, percentiles cover the latest samples only.
+     *
+     * @return {@link java.util.Map}
+     */
+    public Map<String, Object> toMap() {
+        long total;
+        long[] window;
+        synchronized (this) {
+            total = count;
+            window = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        Arrays.sort(window);
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", total);
+        map.put("p50", percentile(window, 0.50));
+        map.put("p90", percentile(window, 0.90));
+        map.put("p99", percentile(window, 0.99));
+        map.put("max", window.length == 0 ? 0 : window[window.length - 1]);
+        return map;
+    }
+
+    private static long percentile(long[] sorted, double rank) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.ceil(rank * sorted.length) - 1];
+    }
+}
@@ -0,0 +1,68 @@
+package com.etriphany.fulltext.domain.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe accumulator of elapsed times.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class Timing {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Register an elapsed time.
+     *
+     * @param nanos Elapsed time in nanoseconds
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Compute the average elapsed time.
+     *
+     * @return Average in milliseconds
+     */
+    public double getAverageMillis() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / (samples * 1000000d);
+    }
+
+    /**
+     * Recover the maximal elapsed time.
+     *
+     * @return Maximal in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000d;
+    }
+
+    /**
+     * Snapshot for reporting.
+     *
+     * @return {@link java.util.Map}
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", getCount());
+        map.put("avgMillis", getAverageMillis());
+        map.put("maxMillis", getMaxMillis());
+        return map;
+    }
+}
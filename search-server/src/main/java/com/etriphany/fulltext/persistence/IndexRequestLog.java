@@ -0,0 +1,659 @@
+package com.etriphany.fulltext.persistence;
+
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Control state of index request queue.
+ *
+ * <p>Queue data are stored on a segmented append-only log, the queue itself is kept in memory and rebuilt from the
+ * log on start:</p>
+ * <ul>
+ * <li>Only changes that must survive a restart are logged: added, removed and failed requests. Locks, leases and
+ * consumed marks live in memory, so requests being processed when the process stops are queued again</li>
+ * <li>Segments are preallocated files written through memory mappings, a new segment is started when the current
+ * one is full</li>
+ * <li>Segments whose requests were all removed are deleted, sparse segments are compacted (live requests are
+ * appended again) first. The checkpoint holds the first segment to read on start</li>
+ * </ul>
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Repository
+@ConditionalOnProperty(name = "fulltext.queue.storage", havingValue = "log")
+public class IndexRequestLog implements QueueStorage {
+
+    private static final Logger LOGGER = LogManager.getLogger(IndexRequestLog.class.getName());
+
+    // Record types
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte FAILED = 3;
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    // Same size as "reason" column of the embedded database
+    private static final int REASON_SIZE = 255;
+
+    @Value("${fulltext.queue.log.path}")
+    private String logPath;
+
+    @Value("${fulltext.queue.log.segment-mb}")
+    private Integer segmentMb;
+
+    // Flush each change to the storage device (otherwise changes survive a process crash, not an OS crash)
+    @Value("${fulltext.queue.log.sync}")
+    private Boolean sync;
+
+    // Segments with fewer live requests than this ratio are compacted
+    @Value("${fulltext.queue.log.compact-ratio}")
+    private Double compactRatio;
+
+    private Path directory;
+
+    private int segmentSize;
+
+    // Segments by id, the last one takes appends
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+
+    private LogSegment active;
+
+    // First segment to read on start
+    private long checkpoint;
+
+    // Last request sequence
+    private long sequence;
+
+    // Requests by sequence (queue order)
+    private final TreeMap<Long, Entry> entries = new TreeMap<>();
+
+    // Latest request by key (id, path and operation), finds requests stored before they carried their sequence
+    private final Map<String, Entry> keys = new HashMap<>();
+
+    // Queued (not locked yet) requests by path
+    private final Map<String, Entry> queuedPaths = new HashMap<>();
+
+    // Requests by status, in queue order
+    private final Map<IndexRequestStatus, TreeMap<Long, Entry>> statuses = new EnumMap<>(IndexRequestStatus.class);
+
+    // Queued requests by priority lane, in queue order
+    private final Map<IndexRequestPriority, TreeMap<Long, Entry>> lanes = new EnumMap<>(IndexRequestPriority.class);
+
+    /**
+     * Rebuild the queue from the log.
+     *
+     * @throws IOException in case of filesystem error
+     */
+    @PostConstruct
+    public synchronized void init() throws IOException {
+        directory = Paths.get(logPath).toAbsolutePath();
+        segmentSize = segmentMb * 1024 * 1024;
+        for (IndexRequestStatus status : IndexRequestStatus.values()) {
+            statuses.put(status, new TreeMap<>());
+        }
+        for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+            lanes.put(priority, new TreeMap<>());
+        }
+        Files.createDirectories(directory);
+        checkpoint = readCheckpoint();
+
+        List<Long> ids;
+        try (Stream<Path> files = Files.list(directory)) {
+            ids = files.filter(file -> file.getFileName().toString().endsWith(LogSegment.SUFFIX))
+                    .map(LogSegment::idOf)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (long id : ids) {
+            LogSegment segment = LogSegment.of(directory, id);
+            if (id < checkpoint) {
+                // Compacted already, delete failed before
+                segment.delete();
+                continue;
+            }
+            segments.put(id, segment);
+            segment.open(0);
+            segment.read((type, payload) -> replay(segment, type, payload));
+            if (id != ids.get(ids.size() - 1)) {
+                segment.close();
+            }
+        }
+
+        if (segments.isEmpty()) {
+            roll(checkpoint);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        LOGGER.info("Queue log loaded " + entries.size() + " requests from " + segments.size() + " segments");
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public synchronized void insert(final IndexRequest request) throws PersistenceException {
+        add(request);
+        flush();
+    }
+
+    @Override
+    public synchronized int insertAll(final List<IndexRequest> requests) throws PersistenceException {
+        int added = 0;
+        for (IndexRequest request : requests) {
+            added += add(request) ? 1 : 0;
+        }
+        flush();
+        return added;
+    }
+
+    @Override
+    public synchronized void remove(IndexRequestStatus currentStatus) throws PersistenceException {
+        for (Entry entry : new ArrayList<>(statuses.get(currentStatus).values())) {
+            remove(entry);
+        }
+        flush();
+    }
+
+    @Override
+    public synchronized void remove(IndexRequest request) throws PersistenceException {
+        Entry entry = find(request);
+        if (entry != null) {
+            remove(entry);
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized List<IndexRequest> claim(String owner, IndexRequestPriority priority, Integer limit, long leaseMs) throws PersistenceException {
+        long now = System.currentTimeMillis();
+
+        // Oldest first among queued and expired requests of the lane
+        Iterator<Entry> queued = lanes.get(priority).values().iterator();
+        Iterator<Entry> expired = expired(now).stream().filter(entry -> entry.priority == priority).iterator();
+        Entry nextQueued = queued.hasNext() ? queued.next() : null;
+        Entry nextExpired = expired.hasNext() ? expired.next() : null;
+
+        List<Entry> claimed = new ArrayList<>();
+        while (claimed.size() < limit && (nextQueued != null || nextExpired != null)) {
+            if (nextExpired == null || (nextQueued != null && nextQueued.sequence < nextExpired.sequence)) {
+                claimed.add(nextQueued);
+                nextQueued = queued.hasNext() ? queued.next() : null;
+            } else {
+                claimed.add(nextExpired);
+                nextExpired = expired.hasNext() ? expired.next() : null;
+            }
+        }
+
+        List<IndexRequest> result = new ArrayList<>();
+        for (Entry entry : claimed) {
+            lease(entry, owner, now + leaseMs);
+            result.add(entry.toRequest());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int claimAll(String owner, long leaseMs) throws PersistenceException {
+        long now = System.currentTimeMillis();
+        List<Entry> claimed = new ArrayList<>(statuses.get(IndexRequestStatus.QUEUED).values());
+        claimed.addAll(expired(now));
+        for (Entry entry : claimed) {
+            lease(entry, owner, now + leaseMs);
+        }
+        return claimed.size();
+    }
+
+    @Override
+    public synchronized void changeStatus(final IndexRequest request, IndexRequestStatus newStatus) throws PersistenceException {
+        Entry entry = find(request);
+        if (entry != null) {
+            setStatus(entry, newStatus);
+        }
+    }
+
+    @Override
+    public synchronized void fail(final IndexRequest request, String reason) throws PersistenceException {
+        Entry entry = find(request);
+        if (entry != null) {
+            entry.reason = reason.length() > REASON_SIZE ? reason.substring(0, REASON_SIZE) : reason;
+            setStatus(entry, IndexRequestStatus.FAILED);
+            append(FAILED, encodeFailed(entry));
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized Integer countInStatus(IndexRequestStatus status) throws PersistenceException {
+        return statuses.get(status).size();
+    }
+
+    @Override
+    public synchronized Integer countQueued(IndexRequestPriority priority) throws PersistenceException {
+        return lanes.get(priority).size();
+    }
+
+    @Override
+    public synchronized List<IndexRequest> listLocked(IndexRequest after) throws PersistenceException {
+        NavigableMap<Long, Entry> locked = statuses.get(IndexRequestStatus.LOCKED);
+        if (after != null) {
+            Entry last = find(after);
+            if (last == null) {
+                LOGGER.warn("Lost position on locked requests, " + after.toString() + " is gone");
+                return new ArrayList<>();
+            }
+            locked = locked.tailMap(last.sequence, false);
+        }
+        return locked.values().stream()
+                .limit(PAGE_SIZE)
+                .map(Entry::toRequest)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Task execution endpoint (compaction).
+     */
+    @Scheduled(fixedDelayString = "${fulltext.queue.log.compact-interval}")
+    public synchronized void runTask() {
+        try {
+            long first = checkpoint;
+            while (segments.size() > 1) {
+                LogSegment head = segments.firstEntry().getValue();
+                if (head.getLive() > 0 && head.getLive() > head.getAdded() * compactRatio) {
+                    break;
+                }
+                if (head.getLive() > 0) {
+                    relocate(head);
+                }
+                segments.remove(head.getId());
+                first = segments.firstKey();
+                writeCheckpoint(first);
+                head.delete();
+                LOGGER.debug("Queue log segment " + head.getId() + " compacted");
+            }
+        } catch (IOException | PersistenceException e) {
+            LOGGER.error(e);
+        }
+    }
+
+    /**
+     * Add a request, folded into the request queued (not locked yet) for the same path if any.
+     * <p/>
+     * The net operation (see {@link ContentOperation#coalesce(ContentOperation, ContentOperation)}) keeps the queue
+     * position of the first request and takes the most urgent priority. Requests being processed are never folded,
+     * the net request is queued even if equal to one of them (its content may have changed after being read).
+     *
+     * @param request {@link IndexRequest}
+     * @return True if added, false if duplicated
+     * @throws PersistenceException in case of storage error
+     */
+    private boolean add(IndexRequest request) throws PersistenceException {
+        Content content = request.getContent();
+        IndexRequestPriority priority = request.getPriority() == null ? IndexRequestPriority.BULK : request.getPriority();
+        Entry queued = queuedPaths.get(content.getPath());
+        if (queued != null && queued.operation == request.getOperation() && queued.id.equals(content.getId())
+                && IndexRequestPriority.highest(queued.priority, priority) == queued.priority) {
+            LOGGER.debug("Ingore duplicated request " + request.toString());
+            return false;
+        }
+
+        long position;
+        long queuedAt;
+        ContentOperation operation = request.getOperation();
+        if (queued != null) {
+            operation = ContentOperation.coalesce(queued.operation, operation);
+            priority = IndexRequestPriority.highest(queued.priority, priority);
+            position = queued.sequence;
+            queuedAt = queued.queuedAt;
+            if (operation == null) {
+                // Cancelled
+                remove(queued);
+                return true;
+            }
+            forget(queued);
+        } else {
+            position = ++sequence;
+            queuedAt = System.currentTimeMillis();
+        }
+
+        // Appended with the same sequence, replaces the folded request on replay
+        Entry entry = new Entry(position, content.getId(), content.getPath(), operation, priority, queuedAt);
+        register(entry, append(ADDED, encodeAdded(entry)));
+        return true;
+    }
+
+    /**
+     * Keep a queued request in memory.
+     *
+     * @param entry   {@link Entry}
+     * @param segment Id of the segment that holds the request
+     */
+    private void register(Entry entry, long segment) {
+        entry.segment = segment;
+        segments.get(segment).added();
+        keys.put(key(entry.id, entry.path, entry.operation), entry);
+        entries.put(entry.sequence, entry);
+        statuses.get(IndexRequestStatus.QUEUED).put(entry.sequence, entry);
+        lanes.get(entry.priority).put(entry.sequence, entry);
+        queuedPaths.put(entry.path, entry);
+    }
+
+    /**
+     * Remove a request from the queue.
+     *
+     * @param entry {@link Entry}
+     * @throws PersistenceException in case of storage error
+     */
+    private void remove(Entry entry) throws PersistenceException {
+        append(REMOVED, encodeRemoved(entry.sequence));
+        forget(entry);
+    }
+
+    /**
+     * Drop a request from memory.
+     *
+     * @param entry {@link Entry}
+     */
+    private void forget(Entry entry) {
+        queuedPaths.remove(entry.path, entry);
+        lanes.get(entry.priority).remove(entry.sequence);
+        keys.remove(key(entry.id, entry.path, entry.operation), entry);
+        entries.remove(entry.sequence);
+        statuses.get(entry.status).remove(entry.sequence);
+        LogSegment segment = segments.get(entry.segment);
+        if (segment != null) {
+            segment.removed();
+        }
+    }
+
+    /**
+     * Lease a request.
+     */
+    private void lease(Entry entry, String owner, long until) {
+        setStatus(entry, IndexRequestStatus.LOCKED);
+        entry.leaseOwner = owner;
+        entry.leaseUntil = until;
+        ++entry.attempts;
+    }
+
+    /**
+     * Recover locked requests whose lease expired.
+     *
+     * @param now Current time in milliseconds
+     * @return {@link java.util.List}, oldest first
+     */
+    private List<Entry> expired(long now) {
+        return statuses.get(IndexRequestStatus.LOCKED).values().stream()
+                .filter(entry -> entry.leaseUntil < now)
+                .collect(Collectors.toList());
+    }
+
+    private void setStatus(Entry entry, IndexRequestStatus status) {
+        statuses.get(entry.status).remove(entry.sequence);
+        entry.status = status;
+        statuses.get(status).put(entry.sequence, entry);
+        if (status == IndexRequestStatus.QUEUED) {
+            lanes.get(entry.priority).put(entry.sequence, entry);
+            queuedPaths.put(entry.path, entry);
+        } else {
+            lanes.get(entry.priority).remove(entry.sequence);
+            queuedPaths.remove(entry.path, entry);
+        }
+    }
+
+    /**
+     * Append live requests of a segment to the active one.
+     *
+     * @param segment {@link LogSegment}
+     * @throws PersistenceException in case of storage error
+     */
+    private void relocate(LogSegment segment) throws PersistenceException {
+        for (Entry entry : entries.values()) {
+            if (entry.segment != segment.getId()) {
+                continue;
+            }
+            entry.segment = append(ADDED, encodeAdded(entry));
+            segments.get(entry.segment).added();
+            segment.removed();
+            if (entry.status == IndexRequestStatus.FAILED) {
+                append(FAILED, encodeFailed(entry));
+            }
+        }
+        // Must be on disk before the segment is deleted
+        active.force();
+    }
+
+    /**
+     * Apply a record read from the log.
+     */
+    private void replay(LogSegment segment, byte type, ByteBuffer payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(toBytes(payload)));
+        long seq = in.readLong();
+        Entry entry = entries.get(seq);
+        switch (type) {
+            case ADDED:
+                if (entry != null) {
+                    // Folded with a newer request, or appended again by a compaction cut short
+                    forget(entry);
+                }
+                String id = in.readUTF();
+                String path = in.readUTF();
+                ContentOperation operation = ContentOperation.valueOf(in.readUTF());
+                // Records logged before priority lanes have no priority nor queue time
+                boolean lane = in.available() > 0;
+                IndexRequestPriority priority = lane ? IndexRequestPriority.valueOf(in.readUTF()) : IndexRequestPriority.BULK;
+                long queuedAt = lane ? in.readLong() : System.currentTimeMillis();
+                register(new Entry(seq, id, path, operation, priority, queuedAt), segment.getId());
+                sequence = Math.max(sequence, seq);
+                break;
+            case REMOVED:
+                if (entry != null) {
+                    forget(entry);
+                }
+                break;
+            case FAILED:
+                if (entry != null) {
+                    entry.reason = in.readUTF();
+                    setStatus(entry, IndexRequestStatus.FAILED);
+                }
+                break;
+            default:
+                throw new IOException("Unknown queue log record " + type + " on " + segment.getFile());
+        }
+    }
+
+    /**
+     * Append a record, starting a new segment if needed.
+     *
+     * @param type    Record type
+     * @param payload Record payload
+     * @return Id of the segment that holds the record
+     * @throws PersistenceException in case of storage error
+     */
+    private long append(byte type, byte[] payload) throws PersistenceException {
+        if (!LogSegment.fits(payload, segmentSize)) {
+            throw new PersistenceException(new IOException("Queue log record bigger than a segment"));
+        }
+        try {
+            if (!active.append(type, payload)) {
+                active.close();
+                roll(active.getId() + 1);
+                active.append(type, payload);
+            }
+            return active.getId();
+        } catch (IOException ioe) {
+            throw new PersistenceException(ioe);
+        }
+    }
+
+    /**
+     * Start a new segment.
+     *
+     * @param id Segment id
+     * @throws IOException in case of filesystem error
+     */
+    private void roll(long id) throws IOException {
+        LogSegment segment = LogSegment.of(directory, id);
+        segment.open(segmentSize);
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    private void flush() {
+        if (sync) {
+            active.force();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+    }
+
+    private void writeCheckpoint(long id) throws IOException {
+        // Write aside then move, a crash never leaves a partial checkpoint
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temp, String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = id;
+    }
+
+    private static byte[] encodeAdded(Entry entry) throws PersistenceException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(entry.sequence);
+            out.writeUTF(entry.id);
+            out.writeUTF(entry.path);
+            out.writeUTF(entry.operation.name());
+            out.writeUTF(entry.priority.name());
+            out.writeLong(entry.queuedAt);
+            return bytes.toByteArray();
+        } catch (IOException ioe) {
+            throw new PersistenceException(ioe);
+        }
+    }
+
+    private static byte[] encodeRemoved(long sequence) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(sequence).array();
+    }
+
+    private static byte[] encodeFailed(Entry entry) throws PersistenceException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(entry.sequence);
+            out.writeUTF(entry.reason);
+            return bytes.toByteArray();
+        } catch (IOException ioe) {
+            throw new PersistenceException(ioe);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Find a stored request, by its sequence once read from the queue.
+     *
+     * @param request {@link IndexRequest}
+     * @return {@link Entry} or null if gone
+     */
+    private Entry find(IndexRequest request) {
+        if (request.getSequence() != null) {
+            return entries.get(request.getSequence());
+        }
+        return keys.get(key(request.getContent().getId(), request.getContent().getPath(), request.getOperation()));
+    }
+
+    private static String key(String id, String path, ContentOperation operation) {
+        return id + '\u0000' + path + '\u0000' + operation;
+    }
+
+    /**
+     * Queued request.
+     */
+    private static final class Entry {
+
+        private final long sequence;
+
+        private final String id;
+
+        private final String path;
+
+        private final ContentOperation operation;
+
+        private final IndexRequestPriority priority;
+
+        // Queue time (epoch milliseconds)
+        private final long queuedAt;
+
+        private IndexRequestStatus status = IndexRequestStatus.QUEUED;
+
+        // Segment that holds the request
+        private long segment;
+
+        private String leaseOwner;
+
+        private long leaseUntil;
+
+        // Number of leases, not logged (counted again after a restart)
+        private int attempts;
+
+        private String reason;
+
+        Entry(long sequence, String id, String path, ContentOperation operation, IndexRequestPriority priority, long queuedAt) {
+            this.sequence = sequence;
+            this.id = id;
+            this.path = path;
+            this.operation = operation;
+            this.priority = priority;
+            this.queuedAt = queuedAt;
+        }
+
+        IndexRequest toRequest() {
+            Content content = new Content();
+            content.setId(id);
+            content.setPath(path);
+
+            IndexRequest request = new IndexRequest();
+            request.setContent(content);
+            request.setOperation(operation);
+            request.setStatus(status);
+            request.setPriority(priority);
+            request.setQueuedAt(queuedAt);
+            request.setSequence(sequence);
+            request.setAttempts(attempts);
+            return request;
+        }
+    }
+}
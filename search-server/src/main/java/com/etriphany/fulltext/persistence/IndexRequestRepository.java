@@ -2,21 +2,26 @@ package com.etriphany.fulltext.persistence;
 
 import com.etriphany.fulltext.domain.embed.Content;
 import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
 import com.etriphany.fulltext.domain.persistent.IndexRequest;
 import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
 import com.etriphany.fulltext.domain.util.FieldNames;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.dao.DataAccessException;
-import org.springframework.dao.DuplicateKeyException;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Control state of index request queue.
@@ -27,9 +32,17 @@ import java.util.Map;
  *
  */
 @Repository
-public class IndexRequestRepository {
+@ConditionalOnProperty(name = "fulltext.queue.storage", havingValue = "jdbc", matchIfMissing = true)
+public class IndexRequestRepository implements QueueStorage {
 
-    public static final Integer PAGE_SIZE = 50;
+    // Size of "reason" column
+    private static final int REASON_SIZE = 255;
+
+    // Paths looked up at once while folding new requests
+    private static final int PATHS_PER_QUERY = 500;
+
+    // Requests that can be leased (expects current time as parameter), rows locked before leases existed have none
+    private static final String CLAIMABLE = "(status = 'QUEUED' OR (status = 'LOCKED' AND (lease_until IS NULL OR lease_until < ?)))";
 
     private static final Logger LOGGER = LogManager.getLogger(IndexRequestRepository.class.getName());
 
@@ -37,18 +50,72 @@ public class IndexRequestRepository {
     private JdbcTemplate jdbc;
 
     /**
-     * Add a new request to the queue.
+     * Add a new request to the queue, folded into the request queued for the same path if any.
      *
      * @param request {@link IndexRequest}
      * @throws PersistenceException in case of storage error
      */
+    @Override
     public void insert(final IndexRequest request) throws PersistenceException {
-        final String sql = "INSERT INTO index_queue (id, path, operation) VALUES(?, ?, ?)";
+        insertAll(Collections.singletonList(request));
+    }
+
+    /**
+     * Add many requests to the queue at once.
+     * <p/>
+     * Requests are folded with the request queued (not locked yet) for the same path into a single net operation
+     * (see {@link ContentOperation#coalesce(ContentOperation, ContentOperation)}), which keeps the queue position
+     * of the first one and takes the most urgent priority. Requests that change nothing are ignored as duplicated.
+     * Requests being processed are never folded, the net request is queued even if equal to one of them (its
+     * content may have changed after being read).
+     *
+     * @param requests {@link java.util.List} of {@link IndexRequest}
+     * @return Number of requests added
+     * @throws PersistenceException in case of storage error
+     */
+    @Override
+    public int insertAll(final List<IndexRequest> requests) throws PersistenceException {
+        final String delete = "DELETE FROM index_queue WHERE path = ? AND status = 'QUEUED'";
+        final String insert = "INSERT INTO index_queue (id, path, operation, priority, queued_at) VALUES (?, ?, ?, ?, COALESCE(CAST(? AS TIMESTAMP), CURRENT_TIMESTAMP))";
         try {
-            jdbc.update(sql, request.getContent().getId(), request.getContent().getPath(), request.getOperation().toString());
-        } catch (DuplicateKeyException dke) {
-            // Ignore
-            LOGGER.debug("Ingore duplicated request " + request.toString());
+            Map<String, Pending> pending = listPending(requests);
+            int added = 0;
+            for (IndexRequest request : requests) {
+                Pending current = pending.get(request.getContent().getPath());
+                IndexRequestPriority priority = priorityOf(request);
+                if (current.operation == request.getOperation() && request.getContent().getId().equals(current.id)
+                        && IndexRequestPriority.highest(current.priority, priority) == current.priority) {
+                    LOGGER.debug("Ingore duplicated request " + request.toString());
+                    continue;
+                }
+                current.operation = ContentOperation.coalesce(current.operation, request.getOperation());
+                current.priority = current.operation == null ? null : IndexRequestPriority.highest(current.priority, priority);
+                current.id = request.getContent().getId();
+                ++added;
+            }
+
+            // Replace queued requests of each changed path by the net one
+            List<Object[]> deletes = new ArrayList<>();
+            List<Object[]> inserts = new ArrayList<>();
+            for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+                Pending net = entry.getValue();
+                if (!net.isChanged()) {
+                    continue;
+                }
+                if (net.queued > 0) {
+                    deletes.add(new Object[]{entry.getKey()});
+                }
+                if (net.operation != null) {
+                    inserts.add(new Object[]{net.id, entry.getKey(), net.operation.toString(), net.priority.toString(), net.queuedAt});
+                }
+            }
+            if (!deletes.isEmpty()) {
+                jdbc.batchUpdate(delete, deletes);
+            }
+            if (!inserts.isEmpty()) {
+                jdbc.batchUpdate(insert, inserts);
+            }
+            return added;
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
@@ -60,6 +127,7 @@ public class IndexRequestRepository {
      * @param currentStatus {@link IndexRequestStatus}
      * @throws PersistenceException in case of storage error
      */
+    @Override
     public void remove(IndexRequestStatus currentStatus) throws PersistenceException {
         final String sql = "DELETE FROM index_queue WHERE status = ?";
         try {
@@ -75,57 +143,81 @@ public class IndexRequestRepository {
      * @param request {@link IndexRequest}
      * @throws PersistenceException in case of storage error
      */
+    @Override
     public void remove(IndexRequest request) throws PersistenceException {
-        final String sql = "DELETE FROM index_queue WHERE id = ? AND path = ? AND operation = ?";
+        final String sql = "DELETE FROM index_queue WHERE " + rowOf(request);
         try {
-            jdbc.update(sql, request.getContent().getId(), request.getContent().getPath(), request.getOperation().toString());
+            jdbc.update(sql, rowArgs(request));
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
     }
 
     /**
-     * Recover single queued request.
+     * Lease a block of requests of a priority lane to a worker, oldest first.
+     * <p/>
+     * Requests whose lease expired (worker crashed or stopped) are queued again first. Each request is then leased
+     * only if still queued, so concurrent workers never claim the same request.
      *
-     * @return {@link IndexRequest}
+     * @param owner    Lease owner, unique per claim
+     * @param priority {@link IndexRequestPriority} lane
+     * @param limit    Maximal number of requests to claim
+     * @param leaseMs  Lease duration in milliseconds
+     * @return {@link java.util.List}
      * @throws PersistenceException in case of storage error
      */
-    public IndexRequest getNext() throws PersistenceException {
-        IndexRequest result = null;
-
-        final String sql = "SELECT id, path, operation FROM index_queue WHERE status = 'QUEUED' ORDER BY queued_at ASC LIMIT 1";
+    @Override
+    public List<IndexRequest> claim(String owner, IndexRequestPriority priority, Integer limit, long leaseMs) throws PersistenceException {
+        final String expire = "UPDATE index_queue SET status = 'QUEUED', lease_owner = NULL, lease_until = NULL "
+                + "WHERE status = 'LOCKED' AND (lease_until IS NULL OR lease_until < ?)";
+        // Ordering on the whole (status, priority, queued_at) index lets the limit stop the scan early
+        final String select = "SELECT seq, id, path, operation, priority, queued_at, attempts FROM index_queue WHERE status = 'QUEUED' AND priority = ? "
+                + "ORDER BY status, priority, queued_at ASC LIMIT ?";
+        final String lease = "UPDATE index_queue SET status = 'LOCKED', lease_owner = ?, lease_until = ?, attempts = attempts + 1 "
+                + "WHERE seq = ? AND status = 'QUEUED'";
         try {
-            List<Map<String, Object>> rows = jdbc.queryForList(sql);
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            Timestamp until = new Timestamp(now.getTime() + leaseMs);
+            jdbc.update(expire, now);
 
-            for (Map row : rows) {
-                Content content = new Content();
-                content.setId((String) row.get(FieldNames.ID));
-                content.setPath((String) row.get(FieldNames.PATH));
+            List<IndexRequest> candidates = toRequests(jdbc.queryForList(select, priority.toString(), limit));
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            List<Object[]> args = new ArrayList<>();
+            for (IndexRequest request : candidates) {
+                args.add(new Object[]{owner, until, request.getSequence()});
+            }
+            int[] counts = jdbc.batchUpdate(lease, args);
 
-                result = new IndexRequest();
-                result.setContent(content);
-                result.setOperation(ContentOperation.valueOf((String) row.get(FieldNames.OPERATION)));
+            List<IndexRequest> claimed = new ArrayList<>();
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] > 0) {
+                    IndexRequest request = candidates.get(i);
+                    request.setAttempts(request.getAttempts() + 1);
+                    claimed.add(request);
+                }
             }
-        }  catch (EmptyResultDataAccessException eds) {
-            return null;
+            return claimed;
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
-
-        return result;
     }
 
     /**
-     * Change state of all requests that match the currentState.
+     * Lease all claimable requests to a worker.
      *
-     * @param currentStatus {@link IndexRequestStatus}
-     * @param newStatus     {@link IndexRequestStatus}
+     * @param owner   Lease owner, unique per claim
+     * @param leaseMs Lease duration in milliseconds
+     * @return Number of requests claimed
      * @throws PersistenceException in case of storage error
      */
-    public void changeStatus(IndexRequestStatus currentStatus, IndexRequestStatus newStatus) throws PersistenceException {
-        final String sql = "UPDATE index_queue SET status = ? WHERE status = ?";
+    @Override
+    public int claimAll(String owner, long leaseMs) throws PersistenceException {
+        final String sql = "UPDATE index_queue SET status = 'LOCKED', lease_owner = ?, lease_until = ?, attempts = attempts + 1 WHERE " + CLAIMABLE;
         try {
-            jdbc.update(sql, newStatus.toString(), currentStatus.toString());
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            return jdbc.update(sql, owner, new Timestamp(now.getTime() + leaseMs), now);
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
@@ -138,10 +230,34 @@ public class IndexRequestRepository {
      * @param newStatus {@link IndexRequestStatus}
      * @throws PersistenceException in case of storage error
      */
+    @Override
     public void changeStatus(final IndexRequest request, IndexRequestStatus newStatus) throws PersistenceException {
-        final String sql = "UPDATE index_queue SET status = ? WHERE id = ? AND path = ?";
+        final String sql = "UPDATE index_queue SET status = ? WHERE " + rowOf(request);
         try {
-            jdbc.update(sql, newStatus.toString(), request.getContent().getId(), request.getContent().getPath());
+            List<Object> args = new ArrayList<>();
+            args.add(newStatus.toString());
+            args.addAll(Arrays.asList(rowArgs(request)));
+            jdbc.update(sql, args.toArray());
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
+
+    /**
+     * Mark a request as failed, it is kept on the queue but not processed again.
+     *
+     * @param request {@link IndexRequest}
+     * @param reason  Failure reason
+     * @throws PersistenceException in case of storage error
+     */
+    @Override
+    public void fail(final IndexRequest request, String reason) throws PersistenceException {
+        final String sql = "UPDATE index_queue SET status = 'FAILED', reason = ? WHERE " + rowOf(request);
+        try {
+            List<Object> args = new ArrayList<>();
+            args.add(reason.length() > REASON_SIZE ? reason.substring(0, REASON_SIZE) : reason);
+            args.addAll(Arrays.asList(rowArgs(request)));
+            jdbc.update(sql, args.toArray());
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
@@ -153,6 +269,7 @@ public class IndexRequestRepository {
      * @param status {@link IndexRequestStatus}
      * @throws PersistenceException in case of storage error
      */
+    @Override
     public Integer countInStatus(IndexRequestStatus status) throws PersistenceException {
         final String sql = "SELECT COUNT(*) FROM index_queue WHERE status = ?";
         try {
@@ -163,32 +280,182 @@ public class IndexRequestRepository {
     }
 
     /**
-     * Recover a page of requests locked in the queue.
+     * Count requests waiting on a priority lane.
      *
-     * @param page The page to limit the result set (0...n)
-     * @return {@link java.util.List}
+     * @param priority {@link IndexRequestPriority}
      * @throws PersistenceException in case of storage error
      */
-    public List<IndexRequest> listLocked(Integer page) throws PersistenceException {
-        List<IndexRequest> result = new ArrayList<>();
+    @Override
+    public Integer countQueued(IndexRequestPriority priority) throws PersistenceException {
+        final String sql = "SELECT COUNT(*) FROM index_queue WHERE status = 'QUEUED' AND priority = ?";
+        try {
+            return jdbc.queryForObject(sql, Integer.class, priority.toString());
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
 
-        final String sql = "SELECT * FROM index_queue WHERE status = 'LOCKED' ORDER BY queued_at ASC OFFSET ? LIMIT ?";
+    /**
+     * Recover the next page of requests locked in the queue, in queue order.
+     * <p/>
+     * Pages are keyed on <code>(queued_at, id, path)</code>, starting the index scan right after the last request
+     * seen, so walking the whole queue is linear.
+     *
+     * @param after Last request of the previous page, null for the first page
+     * @return {@link java.util.List}
+     * @throws PersistenceException in case of storage error
+     */
+    @Override
+    public List<IndexRequest> listLocked(IndexRequest after) throws PersistenceException {
+        final String first = "SELECT seq, id, path, operation, attempts FROM index_queue WHERE status = 'LOCKED' "
+                + "ORDER BY status, queued_at, id, path LIMIT ?";
+        final String position = "SELECT queued_at FROM index_queue WHERE ";
+        // Range on queued_at uses the index, the rest only breaks ties (row value comparisons are not indexed)
+        final String next = "SELECT seq, id, path, operation, attempts FROM index_queue WHERE status = 'LOCKED' AND queued_at >= ? "
+                + "AND (queued_at > ? OR id > ? OR (id = ? AND path > ?)) "
+                + "ORDER BY status, queued_at, id, path LIMIT ?";
         try {
-            List<Map<String, Object>> rows = jdbc.queryForList(sql, (page * PAGE_SIZE), PAGE_SIZE);
-            for (Map row : rows) {
-                Content content = new Content();
-                content.setId((String) row.get(FieldNames.ID));
-                content.setPath((String) row.get(FieldNames.PATH));
-
-                IndexRequest request = new IndexRequest();
-                request.setContent(content);
-                request.setOperation(ContentOperation.valueOf((String) row.get(FieldNames.OPERATION)));
-                result.add(request);
+            if (after == null) {
+                return toRequests(jdbc.queryForList(first, PAGE_SIZE));
             }
+            String id = after.getContent().getId();
+            String path = after.getContent().getPath();
+            List<Timestamp> queuedAt = jdbc.queryForList(position + rowOf(after), Timestamp.class, rowArgs(after));
+            if (queuedAt.isEmpty()) {
+                LOGGER.warn("Lost position on locked requests, " + after.toString() + " is gone");
+                return new ArrayList<>();
+            }
+            Timestamp at = queuedAt.get(0);
+            return toRequests(jdbc.queryForList(next, at, at, id, id, path, PAGE_SIZE));
         } catch (DataAccessException dae) {
             throw new PersistenceException(dae);
         }
+    }
 
+    /**
+     * Map rows to requests.
+     *
+     * @param rows Rows with id, path and operation columns (seq, priority, queued_at and attempts are optional)
+     * @return {@link java.util.List}
+     */
+    private static List<IndexRequest> toRequests(List<Map<String, Object>> rows) {
+        List<IndexRequest> result = new ArrayList<>();
+        for (Map row : rows) {
+            Content content = new Content();
+            content.setId((String) row.get(FieldNames.ID));
+            content.setPath((String) row.get(FieldNames.PATH));
+
+            IndexRequest request = new IndexRequest();
+            request.setContent(content);
+            request.setOperation(ContentOperation.valueOf((String) row.get(FieldNames.OPERATION)));
+            if (row.get("priority") != null) {
+                request.setPriority(IndexRequestPriority.valueOf((String) row.get("priority")));
+            }
+            if (row.get("queued_at") != null) {
+                request.setQueuedAt(((Timestamp) row.get("queued_at")).getTime());
+            }
+            if (row.get("seq") != null) {
+                request.setSequence(((Number) row.get("seq")).longValue());
+            }
+            if (row.get("attempts") != null) {
+                request.setAttempts(((Number) row.get("attempts")).intValue());
+            }
+            result.add(request);
+        }
         return result;
     }
+
+    /**
+     * Predicate that matches the row of a request: its sequence once read from the queue, its key otherwise.
+     *
+     * @param request {@link IndexRequest}
+     * @return SQL predicate, see {@link #rowArgs(IndexRequest)}
+     */
+    private static String rowOf(IndexRequest request) {
+        return request.getSequence() != null ? "seq = ?" : "id = ? AND path = ? AND operation = ?";
+    }
+
+    private static Object[] rowArgs(IndexRequest request) {
+        if (request.getSequence() != null) {
+            return new Object[]{request.getSequence()};
+        }
+        return new Object[]{request.getContent().getId(), request.getContent().getPath(), request.getOperation().toString()};
+    }
+
+    /**
+     * Recover the lane of a request, requests without priority are bulk.
+     *
+     * @param request {@link IndexRequest}
+     * @return {@link IndexRequestPriority}
+     */
+    private static IndexRequestPriority priorityOf(IndexRequest request) {
+        return request.getPriority() == null ? IndexRequestPriority.BULK : request.getPriority();
+    }
+
+    /**
+     * Recover the requests queued (not locked yet) for the paths of new requests.
+     *
+     * @param requests {@link java.util.List} of {@link IndexRequest}
+     * @return {@link Pending} by path, one for each path of the requests
+     */
+    private Map<String, Pending> listPending(List<IndexRequest> requests) {
+        Map<String, Pending> pending = new LinkedHashMap<>();
+        for (IndexRequest request : requests) {
+            pending.computeIfAbsent(request.getContent().getPath(), path -> new Pending());
+        }
+
+        List<String> paths = new ArrayList<>(pending.keySet());
+        for (int from = 0; from < paths.size(); from += PATHS_PER_QUERY) {
+            List<String> block = paths.subList(from, Math.min(from + PATHS_PER_QUERY, paths.size()));
+            String sql = "SELECT id, path, operation, priority, queued_at FROM index_queue WHERE status = 'QUEUED' AND path IN ("
+                    + String.join(", ", Collections.nCopies(block.size(), "?")) + ") ORDER BY queued_at ASC";
+            for (Map<String, Object> row : jdbc.queryForList(sql, block.toArray())) {
+                pending.get((String) row.get(FieldNames.PATH)).load((String) row.get(FieldNames.ID),
+                        ContentOperation.valueOf((String) row.get(FieldNames.OPERATION)),
+                        IndexRequestPriority.valueOf((String) row.get("priority")), (Timestamp) row.get("queued_at"));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Net operation queued for a path.
+     */
+    private static final class Pending {
+
+        // Number of requests already queued
+        private int queued;
+
+        // Queue position of the first one
+        private Timestamp queuedAt;
+
+        private String id;
+
+        private ContentOperation operation;
+
+        private IndexRequestPriority priority;
+
+        private String queuedId;
+
+        private ContentOperation queuedOperation;
+
+        private IndexRequestPriority queuedPriority;
+
+        void load(String id, ContentOperation operation, IndexRequestPriority priority, Timestamp queuedAt) {
+            if (this.queuedAt == null) {
+                this.queuedAt = queuedAt;
+            }
+            ++queued;
+            this.id = id;
+            this.operation = ContentOperation.coalesce(this.operation, operation);
+            this.priority = IndexRequestPriority.highest(this.priority, priority);
+            this.queuedId = this.id;
+            this.queuedOperation = this.operation;
+            this.queuedPriority = this.priority;
+        }
+
+        boolean isChanged() {
+            return operation != queuedOperation || priority != queuedPriority || !Objects.equals(id, queuedId);
+        }
+    }
 }
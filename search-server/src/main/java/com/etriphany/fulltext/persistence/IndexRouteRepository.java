@@ -0,0 +1,96 @@
+package com.etriphany.fulltext.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control the language index that holds each indexed path.
+ *
+ * <p>Routes are stored using embedded database, so deletes and updates reach the right index without parsing
+ * contents.</p>
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Repository
+public class IndexRouteRepository {
+
+    private static final String MERGE = "MERGE INTO index_route r USING (VALUES(CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(20)))) AS v(path, language) "
+            + "ON r.path = v.path "
+            + "WHEN MATCHED THEN UPDATE SET r.language = v.language "
+            + "WHEN NOT MATCHED THEN INSERT (path, language) VALUES (v.path, v.language)";
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    /**
+     * Recover the index that holds a path.
+     *
+     * @param path Content path
+     * @return Index name or null if unknown
+     * @throws PersistenceException in case of storage error
+     */
+    public String find(String path) throws PersistenceException {
+        final String sql = "SELECT language FROM index_route WHERE path = ?";
+        try {
+            List<String> rows = jdbc.queryForList(sql, String.class, path);
+            return rows.isEmpty() ? null : rows.get(0);
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
+
+    /**
+     * Route a path to an index.
+     *
+     * @param path     Content path
+     * @param language Index name
+     * @throws PersistenceException in case of storage error
+     */
+    public void save(String path, String language) throws PersistenceException {
+        try {
+            jdbc.update(MERGE, path, language);
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
+
+    /**
+     * Route many paths at once.
+     *
+     * @param routes Index names by path
+     * @throws PersistenceException in case of storage error
+     */
+    public void saveAll(Map<String, String> routes) throws PersistenceException {
+        try {
+            List<Object[]> args = new ArrayList<>();
+            for (Map.Entry<String, String> route : routes.entrySet()) {
+                args.add(new Object[]{route.getKey(), route.getValue()});
+            }
+            jdbc.batchUpdate(MERGE, args);
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
+
+    /**
+     * Remove the route of a path.
+     *
+     * @param path Content path
+     * @throws PersistenceException in case of storage error
+     */
+    public void remove(String path) throws PersistenceException {
+        final String sql = "DELETE FROM index_route WHERE path = ?";
+        try {
+            jdbc.update(sql, path);
+        } catch (DataAccessException dae) {
+            throw new PersistenceException(dae);
+        }
+    }
+}
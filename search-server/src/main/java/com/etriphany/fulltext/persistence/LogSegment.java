@@ -0,0 +1,228 @@
+package com.etriphany.fulltext.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Segment of an append-only log, a preallocated file written through a memory mapping.
+ * <p/>
+ * Records are laid out as <code>[length][type][payload][crc]</code>, where length covers type and payload. A zero
+ * length marks the end of written data (each append leaves one behind), a record cut by a crash (bad length or crc)
+ * is treated the same way and overwritten by the next append.
+ *
+ * @author cadu.goncalves
+ *
+ */
+final class LogSegment implements Closeable {
+
+    static final String SUFFIX = ".log";
+
+    // Length and crc
+    private static final int OVERHEAD = Integer.BYTES * 2;
+
+    /**
+     * Receives records read from a segment.
+     */
+    interface Visitor {
+        void visit(byte type, ByteBuffer payload) throws IOException;
+    }
+
+    private final long id;
+
+    private final Path file;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    // Number of requests added on this segment
+    private long added;
+
+    // Number of requests added on this segment still on the queue
+    private long live;
+
+    private LogSegment(long id, Path file) {
+        this.id = id;
+        this.file = file;
+    }
+
+    /**
+     * Build the location of a segment.
+     *
+     * @param directory Log directory
+     * @param id        Segment id
+     * @return Segment file
+     */
+    static Path locate(Path directory, long id) {
+        return directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    /**
+     * Recover the id of a segment file.
+     *
+     * @param file Segment file
+     * @return Segment id
+     */
+    static long idOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Describe a segment without opening it.
+     *
+     * @param directory Log directory
+     * @param id        Segment id
+     * @return {@link LogSegment}
+     */
+    static LogSegment of(Path directory, long id) {
+        return new LogSegment(id, locate(directory, id));
+    }
+
+    /**
+     * Map the segment for appends, the file is created with the given size if missing.
+     *
+     * @param size Segment size in bytes (existing files keep their own size)
+     * @throws IOException in case of filesystem error
+     */
+    void open(int size) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = Math.max(channel.size(), size);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * Read all records, leaving the append position after the last valid one.
+     *
+     * @param visitor {@link Visitor}
+     * @throws IOException in case of filesystem error
+     */
+    void read(Visitor visitor) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        CRC32 crc = new CRC32();
+        while (view.remaining() > OVERHEAD) {
+            int start = view.position();
+            int length = view.getInt();
+            if (length <= 0 || length + Integer.BYTES > view.remaining()) {
+                view.position(start);
+                break;
+            }
+            ByteBuffer record = view.slice();
+            record.limit(length);
+            crc.reset();
+            crc.update(record.duplicate());
+            view.position(view.position() + length);
+            if ((int) crc.getValue() != view.getInt()) {
+                view.position(start);
+                break;
+            }
+            visitor.visit(record.get(), record.slice());
+        }
+        buffer.position(view.position());
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type    Record type
+     * @param payload Record payload
+     * @return False if the segment has no room left
+     */
+    boolean append(byte type, byte[] payload) {
+        int length = 1 + payload.length;
+        if (buffer.remaining() < length + OVERHEAD + Integer.BYTES) {
+            // Keep room for the end mark
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        int start = buffer.position();
+        buffer.position(start + Integer.BYTES);
+        buffer.put(type);
+        buffer.put(payload);
+        buffer.putInt((int) crc.getValue());
+        // End mark, leftovers of a cut record are never read
+        buffer.putInt(buffer.position(), 0);
+        // Length goes last, a reader never sees a partial record
+        buffer.putInt(start, length);
+        return true;
+    }
+
+    /**
+     * Check if a record fits on an empty segment.
+     *
+     * @param payload Record payload
+     * @param size    Segment size in bytes
+     * @return True if it fits
+     */
+    static boolean fits(byte[] payload, int size) {
+        return 1 + payload.length + OVERHEAD + Integer.BYTES <= size;
+    }
+
+    /**
+     * Flush appended records to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getAdded() {
+        return added;
+    }
+
+    long getLive() {
+        return live;
+    }
+
+    void added() {
+        ++added;
+        ++live;
+    }
+
+    void removed() {
+        --live;
+    }
+
+    /**
+     * Release the mapping, records can no longer be appended.
+     *
+     * @throws IOException in case of filesystem error
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Close and remove the segment file.
+     *
+     * @throws IOException in case of filesystem error
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+}
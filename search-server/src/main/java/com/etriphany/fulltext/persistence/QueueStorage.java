@@ -0,0 +1,128 @@
+package com.etriphany.fulltext.persistence;
+
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+
+import java.util.List;
+
+/**
+ * Storage of the index request queue.
+ * <p/>
+ * The implementation is picked by <code>fulltext.queue.storage</code>: <code>jdbc</code> (embedded database, default)
+ * or <code>log</code> (append-only log).
+ *
+ * @author cadu.goncalves
+ *
+ */
+public interface QueueStorage {
+
+    Integer PAGE_SIZE = 50;
+
+    /**
+     * Add a new request to the queue (duplicated requests are ignored), requests without priority are bulk.
+     *
+     * @param request {@link IndexRequest}
+     * @throws PersistenceException in case of storage error
+     */
+    void insert(IndexRequest request) throws PersistenceException;
+
+    /**
+     * Add many requests to the queue at once (duplicated requests are ignored).
+     *
+     * @param requests {@link java.util.List} of {@link IndexRequest}
+     * @return Number of requests added
+     * @throws PersistenceException in case of storage error
+     */
+    int insertAll(List<IndexRequest> requests) throws PersistenceException;
+
+    /**
+     * Remove all request that match the status.
+     *
+     * @param currentStatus {@link IndexRequestStatus}
+     * @throws PersistenceException in case of storage error
+     */
+    void remove(IndexRequestStatus currentStatus) throws PersistenceException;
+
+    /**
+     * Remove a request.
+     *
+     * @param request {@link IndexRequest}
+     * @throws PersistenceException in case of storage error
+     */
+    void remove(IndexRequest request) throws PersistenceException;
+
+    /**
+     * Lease a block of requests of a priority lane to a worker, oldest first.
+     * <p/>
+     * Queued requests and requests whose lease expired are claimable, concurrent workers never claim the same
+     * request. Each claim counts as an attempt (see {@link IndexRequest#getAttempts()}).
+     *
+     * @param owner    Lease owner, unique per claim
+     * @param priority {@link IndexRequestPriority} lane
+     * @param limit    Maximal number of requests to claim
+     * @param leaseMs  Lease duration in milliseconds
+     * @return {@link java.util.List}
+     * @throws PersistenceException in case of storage error
+     */
+    List<IndexRequest> claim(String owner, IndexRequestPriority priority, Integer limit, long leaseMs) throws PersistenceException;
+
+    /**
+     * Lease all claimable requests to a worker.
+     *
+     * @param owner   Lease owner, unique per claim
+     * @param leaseMs Lease duration in milliseconds
+     * @return Number of requests claimed
+     * @throws PersistenceException in case of storage error
+     */
+    int claimAll(String owner, long leaseMs) throws PersistenceException;
+
+    /**
+     * Change state of a particular requests.
+     *
+     * @param request   {@link IndexRequest}
+     * @param newStatus {@link IndexRequestStatus}
+     * @throws PersistenceException in case of storage error
+     */
+    void changeStatus(IndexRequest request, IndexRequestStatus newStatus) throws PersistenceException;
+
+    /**
+     * Mark a request as failed, it is kept on the queue but not processed again.
+     *
+     * @param request {@link IndexRequest}
+     * @param reason  Failure reason
+     * @throws PersistenceException in case of storage error
+     */
+    void fail(IndexRequest request, String reason) throws PersistenceException;
+
+    /**
+     * Count all request in particular state.
+     *
+     * @param status {@link IndexRequestStatus}
+     * @return Number of requests
+     * @throws PersistenceException in case of storage error
+     */
+    Integer countInStatus(IndexRequestStatus status) throws PersistenceException;
+
+    /**
+     * Count requests waiting on a priority lane.
+     *
+     * @param priority {@link IndexRequestPriority}
+     * @return Number of queued requests
+     * @throws PersistenceException in case of storage error
+     */
+    Integer countQueued(IndexRequestPriority priority) throws PersistenceException;
+
+    /**
+     * Recover the next page of requests locked in the queue, in queue order.
+     * <p/>
+     * Pages are keyed on the last request seen, not on offsets, so requests that change status while the queue is
+     * walked are neither skipped nor listed twice. Requests listed must stay on the queue (for instance consumed)
+     * until the walk ends.
+     *
+     * @param after Last request of the previous page, null for the first page
+     * @return {@link java.util.List}, empty when the walk is over
+     * @throws PersistenceException in case of storage error
+     */
+    List<IndexRequest> listLocked(IndexRequest after) throws PersistenceException;
+}
@@ -0,0 +1,250 @@
+package com.etriphany.fulltext.service;
+
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.io.CrawlRequest;
+import com.etriphany.fulltext.domain.io.CrawlStatus;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Directory crawling service.
+ * <p/>
+ * Crawls run in background, each directory is walked by a fork/join task (subdirectories are walked in parallel)
+ * and matching files are sent to the indexing queue in blocks. Only one block per running task is kept in memory,
+ * so huge trees do not blow up the heap.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Service
+public class CrawlService {
+
+    private static final Logger LOGGER = LogManager.getLogger(CrawlService.class.getName());
+
+    private static final String GLOB = "glob:";
+
+    @Autowired
+    private QueueService queueService;
+
+    // Number of threads walking directories
+    @Value("${fulltext.crawl.parallelism}")
+    private Integer parallelism;
+
+    // Number of files sent to the queue at once
+    @Value("${fulltext.crawl.batch}")
+    private Integer batchSize;
+
+    // Holds crawl progress
+    private final ConcurrentMap<String, CrawlStatus> crawls = new ConcurrentHashMap<>();
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Start crawling a directory.
+     *
+     * @param request {@link CrawlRequest}
+     * @return {@link CrawlStatus}
+     * @throws IllegalArgumentException if the request is invalid or root is not a directory
+     */
+    public CrawlStatus start(final CrawlRequest request) throws IllegalArgumentException {
+        if (!request.isValid()) {
+            LOGGER.error("Invalid CrawlRequest object");
+            throw new IllegalArgumentException();
+        }
+        final Path root = Paths.get(request.getRoot()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            LOGGER.error("Crawl root must be a directory");
+            throw new IllegalArgumentException();
+        }
+
+        final List<PathMatcher> includes = buildMatchers(request.getIncludes());
+        final List<PathMatcher> excludes = buildMatchers(request.getExcludes());
+        final CrawlStatus status = new CrawlStatus(UUID.randomUUID().toString(), root.toString());
+        crawls.put(status.getId(), status);
+
+        LOGGER.info("Crawl started " + request.toString());
+        pool.execute(() -> {
+            try {
+                pool.invoke(new DirectoryWalker(root, root, includes, excludes, request.getOperation(), status));
+            } catch (RuntimeException e) {
+                LOGGER.error(e);
+            } finally {
+                status.finish();
+                LOGGER.info("Crawl finished " + status.toString());
+            }
+        });
+        return status;
+    }
+
+    /**
+     * Recover crawl progress.
+     *
+     * @param id Crawl id
+     * @return {@link CrawlStatus} or null if unknown
+     */
+    public CrawlStatus getStatus(String id) {
+        return crawls.get(id);
+    }
+
+    /**
+     * Recover all crawls progress.
+     *
+     * @return {@link java.util.Collection} of {@link CrawlStatus}
+     */
+    public Collection<CrawlStatus> getAll() {
+        return crawls.values();
+    }
+
+    /**
+     * Compile glob patterns.
+     *
+     * @param globs Glob patterns
+     * @return {@link java.util.List} of {@link java.nio.file.PathMatcher}
+     */
+    static List<PathMatcher> buildMatchers(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher(GLOB + glob));
+        }
+        return matchers;
+    }
+
+    /**
+     * Check if a path matches any pattern.
+     *
+     * @param matchers {@link java.util.List} of {@link java.nio.file.PathMatcher}
+     * @param path     Path relative to crawl root
+     * @return True on match
+     */
+    static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk a single directory, forking a task for each subdirectory.
+     */
+    private final class DirectoryWalker extends RecursiveAction {
+
+        private final Path root;
+
+        private final Path directory;
+
+        private final List<PathMatcher> includes;
+
+        private final List<PathMatcher> excludes;
+
+        private final ContentOperation operation;
+
+        private final CrawlStatus status;
+
+        DirectoryWalker(Path root, Path directory, List<PathMatcher> includes, List<PathMatcher> excludes,
+                        ContentOperation operation, CrawlStatus status) {
+            this.root = root;
+            this.directory = directory;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.operation = operation;
+            this.status = status;
+        }
+
+        @Override
+        protected void compute() {
+            status.addDirectory();
+            List<DirectoryWalker> subtasks = new ArrayList<>();
+            List<IndexRequest> batch = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    Path relative = root.relativize(entry);
+                    if (matches(excludes, relative)) {
+                        status.addIgnored();
+                    } else if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        DirectoryWalker subtask = new DirectoryWalker(root, entry, includes, excludes, operation, status);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else if (!Files.isRegularFile(entry) || (!includes.isEmpty() && !matches(includes, relative))) {
+                        status.addIgnored();
+                    } else {
+                        batch.add(buildRequest(entry));
+                        if (batch.size() >= batchSize) {
+                            flush(batch);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                LOGGER.error(e);
+                status.addError();
+            }
+            flush(batch);
+
+            for (DirectoryWalker subtask : subtasks) {
+                subtask.join();
+            }
+        }
+
+        /**
+         * Send a block of requests to the queue.
+         *
+         * @param batch Requests (cleared after sent)
+         */
+        private void flush(List<IndexRequest> batch) {
+            if (!batch.isEmpty()) {
+                queueService.addAll(batch);
+                status.addQueued(batch.size());
+                batch.clear();
+            }
+        }
+
+        /**
+         * Build the index request for a crawled file.
+         *
+         * @param file Crawled file
+         * @return {@link IndexRequest}
+         */
+        private IndexRequest buildRequest(Path file) {
+            Content content = new Content();
+            content.setId(file.toString());
+            content.setPath(file.toString());
+
+            IndexRequest request = new IndexRequest();
+            request.setContent(content);
+            request.setOperation(operation);
+            request.setPriority(IndexRequestPriority.BULK);
+            return request;
+        }
+    }
+}
@@ -1,27 +1,46 @@
 package com.etriphany.fulltext.service;
 
+import com.etriphany.fulltext.service.core.CommitCoordinator;
 import com.etriphany.fulltext.service.core.ContentExtractor;
+import com.etriphany.fulltext.service.core.ContentReader;
+import com.etriphany.fulltext.service.core.ExtractedContent;
+import com.etriphany.fulltext.service.core.ExtractionWorkers;
 import com.etriphany.fulltext.domain.embed.Content;
 import com.etriphany.fulltext.domain.embed.ContentOperation;
 import com.etriphany.fulltext.domain.persistent.IndexRequest;
 import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.SearchException;
 import com.etriphany.fulltext.domain.util.FieldNames;
-import com.etriphany.fulltext.service.core.IndexWriterFactory;
+import com.etriphany.fulltext.persistence.IndexRouteRepository;
+import com.etriphany.fulltext.persistence.PersistenceException;
+import com.etriphany.fulltext.service.core.Fingerprint;
+import com.etriphany.fulltext.service.core.IndexRegistry;
 import com.etriphany.fulltext.service.core.LanguageExtractor;
+import com.etriphany.fulltext.service.core.LeasedSearcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Content indexing service.
@@ -37,15 +56,31 @@ public class IndexService {
     // Define properties of content field
     private static final FieldType CONTENT_FIELD_TYPE = new FieldType();
 
-    /**
-     * The index path must defined externally using parameter
-     */
-    @Value("${fulltext.index.path}")
-    private String indexPathParameter;
-
     @Autowired
     private LanguageExtractor languageDetectorUtil;
 
+    @Autowired
+    private CommitCoordinator commitCoordinator;
+
+    @Autowired
+    private IndexRegistry indexRegistry;
+
+    @Autowired
+    private ExtractionWorkers extractionWorkers;
+
+    @Autowired
+    private IndexRouteRepository routeRepository;
+
+    // Maximal number of characters indexed per content (0 means no limit)
+    @Value("${fulltext.index.max-chars}")
+    private Long maxChars;
+
+    // Number of truncated contents
+    private final AtomicLong truncated = new AtomicLong();
+
+    // Number of unchanged contents not indexed again
+    private final AtomicLong skipped = new AtomicLong();
+
     // Static initialization
     static {
         // Very much like not stored TextField, with term vectors enabled
@@ -55,6 +90,14 @@ public class IndexService {
         CONTENT_FIELD_TYPE.freeze();
     }
 
+    /**
+     * Content extraction is ready before the first request.
+     */
+    @PostConstruct
+    public void warmUp() {
+        ContentExtractor.warmUp();
+    }
+
     /**
      * Process indexing request for a particular content.
      *
@@ -62,61 +105,361 @@ public class IndexService {
      * @throws IndexingException if path points to a directory
      */
     public void process(IndexRequest request) throws IndexingException {
-        Content content = request.getContent() ;
-        ContentOperation operation = request.getOperation();
+        if (extractionWorkers.isEnabled() && request.getOperation() != ContentOperation.DELETE) {
+            // Extraction happens on another process, contents can not be streamed
+            ExtractedContent extracted = extract(request);
+            if (extracted != null) {
+                write(extracted);
+            }
+            return;
+        }
+
+        Content content = validate(request);
+        try {
+            if (request.getOperation() == ContentOperation.DELETE) {
+                // No need to read the file (it may even be gone already)
+                deleteDocument(content);
+                return;
+            }
+
+            Fingerprint fingerprint = takeFingerprint(request);
+            if (fingerprint == null) {
+                return;
+            }
+
+            // Single extraction pass, streamed to language detection and then to indexing
+            try (ContentReader reader = ContentExtractor.openContent(content.getFilePath(), maxChars)) {
+                // Detect language
+                String language = languageDetectorUtil.detect(reader.sample(ContentExtractor.CONTENT_SAMPLING_CHARS));
+                writeDocument(request, fingerprint, language, reader);
+
+                // Truncation accounting
+                countTruncation(content, reader.isTruncated(), reader.getDelivered());
+            }
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        }
+    }
+
+    /**
+     * First half of {@link #process(IndexRequest)}: extract contents and detect language, without touching indexes.
+     *
+     * @param request {@link IndexRequest}
+     * @return {@link ExtractedContent} to be handed to {@link #write(ExtractedContent)}, null if there is nothing
+     * to write (unchanged content)
+     * @throws IndexingException in case of extraction error or if the content goes over the extraction budget
+     */
+    public ExtractedContent extract(IndexRequest request) throws IndexingException {
+        Content content = validate(request);
+        if (request.getOperation() == ContentOperation.DELETE) {
+            return new ExtractedContent(request, null);
+        }
+
+        ExtractedContent extracted = null;
+        try {
+            Fingerprint fingerprint = takeFingerprint(request);
+            if (fingerprint == null) {
+                return null;
+            }
+
+            extracted = new ExtractedContent(request, fingerprint);
+            if (extractionWorkers.isEnabled()) {
+                // Budgeted extraction on a worker process
+                extractionWorkers.extract(content.getFilePath(), maxChars, extracted);
+                extracted.setLanguage(languageDetectorUtil.detect(extracted.sample(ContentExtractor.CONTENT_SAMPLING_CHARS)));
+            } else {
+                try (ContentReader reader = ContentExtractor.openContent(content.getFilePath(), maxChars)) {
+                    extracted.setLanguage(languageDetectorUtil.detect(reader.sample(ContentExtractor.CONTENT_SAMPLING_CHARS)));
+                    extracted.drain(reader);
+                }
+            }
+            return extracted;
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+            close(extracted);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } catch (IndexingException ie) {
+            close(extracted);
+            throw ie;
+        }
+    }
+
+    /**
+     * Second half of {@link #process(IndexRequest)}: analyze and write extracted contents on the index.
+     *
+     * @param extracted {@link ExtractedContent} (closed once written)
+     * @throws IndexingException in case of indexing error
+     */
+    public void write(ExtractedContent extracted) throws IndexingException {
+        IndexRequest request = extracted.getRequest();
+        try {
+            if (request.getOperation() == ContentOperation.DELETE) {
+                deleteDocument(request.getContent());
+                return;
+            }
+
+            try (Reader reader = extracted.open()) {
+                writeDocument(request, extracted.getFingerprint(), extracted.getLanguage(), reader);
+            }
+            countTruncation(request.getContent(), extracted.isTruncated(), extracted.getDelivered());
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } finally {
+            close(extracted);
+        }
+    }
+
+    /**
+     * Flush any pending index write.
+     */
+    public void flush() {
+        commitCoordinator.commit();
+    }
+
+    /**
+     * Add extracted contents to a private writer (offline builds), the change is not tracked for commit.
+     *
+     * @param extracted {@link ExtractedContent} of an ADD request (closed once written)
+     * @param writer    {@link org.apache.lucene.index.IndexWriter}
+     * @throws IndexingException in case of indexing error
+     */
+    public void add(ExtractedContent extracted, IndexWriter writer) throws IndexingException {
+        Content content = extracted.getRequest().getContent();
+        content.setLanguage(extracted.getLanguage());
+        try (Reader reader = extracted.open()) {
+            writer.addDocument(buildDocument(content, extracted.getFingerprint(), reader));
+            countTruncation(content, extracted.isTruncated(), extracted.getDelivered());
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } finally {
+            close(extracted);
+        }
+    }
+
+    /**
+     * Record the indexes that hold contents added to private writers.
+     *
+     * @param routes Index names by content path
+     */
+    public void saveRoutes(Map<String, String> routes) {
+        try {
+            routeRepository.saveAll(routes);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+        }
+    }
+
+    /**
+     * Replace all contents of a language index by offline built indexes.
+     *
+     * @param language Index language
+     * @param sources  Offline built index locations (closed)
+     * @throws IndexingException in case of indexing error
+     */
+    public void replaceIndex(String language, List<Path> sources) throws IndexingException {
+        // The swap must reach the disk in a single commit, grouped commits wait meanwhile
+        synchronized (commitCoordinator) {
+            indexRegistry.replace(language, sources);
+        }
+    }
+
+    /**
+     * Start or finish a bulk load (initial load of many contents).
+     * <p/>
+     * While on bulk load, writers use bigger buffers, merges are deferred and commits are rare.
+     *
+     * @param enabled Bulk load profile
+     */
+    public void setBulkLoad(boolean enabled) {
+        indexRegistry.setBulkLoad(enabled);
+        if (!enabled) {
+            // Everything loaded so far becomes durable and searchable
+            commitCoordinator.commit();
+        }
+    }
+
+    public boolean isBulkLoad() {
+        return indexRegistry.isBulkLoad();
+    }
+
+    /**
+     * Acknowledge a processed request once its changes are safe on disk.
+     *
+     * @param ack Callback that acknowledges the request
+     */
+    public void acknowledge(Runnable ack) {
+        commitCoordinator.afterCommit(ack);
+    }
+
+    /**
+     * Recover the number of contents truncated due to the maximal number of characters.
+     *
+     * @return Number of truncated contents
+     */
+    public long getTruncated() {
+        return truncated.get();
+    }
+
+    /**
+     * Recover the number of UPDATE requests skipped because contents did not change.
+     *
+     * @return Number of skipped requests
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Check request contents.
+     *
+     * @param request {@link IndexRequest}
+     * @return {@link Content}
+     * @throws IndexingException if content is missing or path points to a directory
+     */
+    private Content validate(IndexRequest request) throws IndexingException {
+        Content content = request.getContent();
         if (content == null) {
             LOGGER.error("Content is null");
             throw new IndexingException(IndexingException.ErrorType.NULL_CONTENT);
         }
-        Path docsPath = content.getFilePath();
-        if (Files.isDirectory(docsPath)) {
+        if (Files.isDirectory(content.getFilePath())) {
             LOGGER.error("Content must be a file not a directory");
             throw new IndexingException(IndexingException.ErrorType.CONTENT_NOT_FILE);
         }
+        return content;
+    }
+
+    /**
+     * Take the content fingerprint, unchanged contents are not indexed again.
+     *
+     * @param request {@link IndexRequest} (ADD or UPDATE)
+     * @return {@link Fingerprint} (hash computed only if the size and modification time pre-check was not
+     * conclusive), null if the content did not change
+     * @throws IOException in case of filesystem error
+     */
+    private Fingerprint takeFingerprint(IndexRequest request) throws IOException {
+        Content content = request.getContent();
+        Fingerprint fingerprint = Fingerprint.of(content.getFilePath());
+        if (request.getOperation() == ContentOperation.UPDATE && isUnchanged(content, fingerprint)) {
+            skipped.incrementAndGet();
+            LOGGER.debug("Skipping unchanged " + content.toString());
+            return null;
+        }
+        return fingerprint;
+    }
 
-        // Detect language
-        String language = languageDetectorUtil.detect(content.getFilePath());
+    /**
+     * Add or replace the content document.
+     *
+     * @param request     {@link IndexRequest} (ADD or UPDATE)
+     * @param fingerprint Content {@link Fingerprint}
+     * @param language    Content language
+     * @param reader      Extracted content stream
+     * @throws IOException in case of filesystem error
+     * @throws IndexingException in case of indexing error
+     */
+    private void writeDocument(IndexRequest request, Fingerprint fingerprint, String language, Reader reader)
+            throws IOException, IndexingException {
+        Content content = request.getContent();
         content.setLanguage(language);
 
-        // Build index writer
-        Path indexPath = Paths.get(indexPathParameter);
-        IndexWriter writer = IndexWriterFactory.getInstance(indexPath, language);
+        // Recover index writer
+        IndexWriter writer = indexRegistry.getWriter(language);
 
-        try {
-            switch (operation) {
-                case ADD:
-                    addDocument(writer, content);
-                    break;
-                case UPDATE:
-                    updateDocument(writer, content);
-                    break;
-                case DELETE:
-                    deleteDocument(writer, content);
-                    break;
+        Term term = new Term(FieldNames.PATH, content.getFilePath().toString());
+        Document doc = buildDocument(content, fingerprint, reader);
+        if (request.getOperation() == ContentOperation.ADD) {
+            writer.addDocument(doc);
+        } else {
+            writer.updateDocument(term, doc);
+        }
+
+        // Commit is grouped with other changes
+        commitCoordinator.changed(writer);
+
+        // Language may have changed, copies left on other indexes are removed
+        String name = indexRegistry.getIndexName(language);
+        String previous = findRoute(term.text());
+        if (previous != null) {
+            if (!previous.equals(name)) {
+                deleteDocument(term, Collections.singleton(previous));
             }
-        } catch (IOException ioe) {
-            LOGGER.error(ioe);
-            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } else if (request.getOperation() == ContentOperation.UPDATE) {
+            // Indexed before routes were tracked
+            Set<String> others = indexRegistry.getIndexedLanguages();
+            others.remove(name);
+            deleteDocument(term, others);
         }
+        saveRoute(term.text(), name);
+    }
 
-        IndexWriterFactory.commitAll();
+    /**
+     * Truncation accounting.
+     *
+     * @param content   {@link Content}
+     * @param truncated Content was truncated
+     * @param delivered Number of characters indexed
+     */
+    private void countTruncation(Content content, boolean truncated, long delivered) {
+        if (truncated) {
+            this.truncated.incrementAndGet();
+            LOGGER.warn("Content truncated after " + delivered + " characters " + content.toString());
+        }
     }
 
     /**
-     * Flush any pending index write.
+     * Release extracted contents.
+     *
+     * @param extracted {@link ExtractedContent} (may be null)
      */
-    public void flush() {
-        IndexWriterFactory.commitAll();
+    private static void close(ExtractedContent extracted) {
+        if (extracted != null) {
+            try {
+                extracted.close();
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+            }
+        }
     }
 
     /**
-     * Add document to index.
+     * Check if the indexed contents match the file contents.
      *
-     * @param writer  {@link org.apache.lucene.index.IndexWriter}
-     * @param content {@link Content}
+     * @param content     {@link Content}
+     * @param fingerprint Current file {@link Fingerprint}
+     * @return True if contents did not change since indexed
      * @throws IOException in case of filesystem error
      */
-    private void addDocument(final IndexWriter writer, Content content) throws IOException {
+    private boolean isUnchanged(Content content, Fingerprint fingerprint) throws IOException {
+        // Only the routed index is searched when known
+        String route = findRoute(content.getFilePath().toString());
+        Set<String> languages = route != null ? Collections.singleton(route) : new HashSet<>();
+        try (LeasedSearcher leased = indexRegistry.acquire(languages)) {
+            IndexSearcher searcher = leased.getSearcher();
+            TopDocs topDocs = searcher.search(new TermQuery(new Term(FieldNames.PATH, content.getFilePath().toString())), 1);
+            if (topDocs.totalHits == 0) {
+                return false;
+            }
+            Document document = searcher.doc(topDocs.scoreDocs[0].doc);
+            return fingerprint.matches(content.getFilePath(), Fingerprint.of(document));
+        } catch (SearchException se) {
+            // Nothing indexed yet
+            return false;
+        }
+    }
+
+    /**
+     * Build index document.
+     *
+     * @param content     {@link Content}
+     * @param fingerprint {@link Fingerprint} taken before extraction
+     * @param reader      Extracted content stream
+     * @return {@link org.apache.lucene.document.Document}
+     */
+    private Document buildDocument(Content content, Fingerprint fingerprint, Reader reader) throws IOException {
         // New empty document
         Document doc = new Document();
 
@@ -132,54 +475,100 @@ public class IndexService {
         Field languageField = new StringField(FieldNames.LANGUAGE, content.getLanguage(), Field.Store.YES);
         doc.add(languageField);
 
+        // Fingerprint = storedfield (not searchable at all)
+        doc.add(new StoredField(FieldNames.SIZE, fingerprint.getSize()));
+        doc.add(new StoredField(FieldNames.MODIFIED, fingerprint.getModified()));
+        if (fingerprint.getHash() != null) {
+            // Only known when the file was touched without a size change, computed on the next touch otherwise
+            doc.add(new StoredField(FieldNames.HASH, fingerprint.getHash()));
+        }
+
         // Contents = textfield (indexed and tokenized, the content is not stored, include term vectors)
-        Field contentsField = new Field(FieldNames.CONTENTS, ContentExtractor.extractContent(content.getFilePath()), CONTENT_FIELD_TYPE);
-        //new TextField("contents", ContentExtractor.extractContent(content.getFilePath()), Field.Store.NO);
+        Field contentsField = new Field(FieldNames.CONTENTS, reader, CONTENT_FIELD_TYPE);
+        //new TextField(FieldNames.CONTENTS, reader);
         doc.add(contentsField);
 
-        writer.addDocument(doc);
+        return doc;
     }
 
     /**
-     * Update document on index.
+     * Delete document from indexes.
+     * <p/>
+     * The index is found on the route table, so the file is not read (it may even be gone already). Contents
+     * without route are cleaned from every language index.
      *
-     * @param writer  {@link org.apache.lucene.index.IndexWriter}
      * @param content {@link Content}
      * @throws IOException in case of filesystem error
+     * @throws IndexingException in case of indexing error
      */
-    private void updateDocument(final IndexWriter writer, Content content) throws IOException {
-        // New empty document
-        Document doc = new Document();
-
-        // Id = stringfield (not searchable at all)
-        Field id = new StringField(FieldNames.ID, content.getId(), Field.Store.NO);
-        doc.add(id);
-
-        // Path = stringfield (indexed but not tokenized).
-        Field pathField = new StringField(FieldNames.PATH, content.getFilePath().toString(), Field.Store.YES);
-        doc.add(pathField);
+    private void deleteDocument(Content content) throws IOException, IndexingException {
+        Term term = new Term(FieldNames.PATH, content.getFilePath().toString());
+        Set<String> indexed = indexRegistry.getIndexedLanguages();
+        String route = findRoute(term.text());
+        if (route != null && indexed.contains(route)) {
+            deleteDocument(term, Collections.singleton(route));
+        } else {
+            deleteDocument(term, indexed);
+        }
+        removeRoute(term.text());
+    }
 
-        // Language = stringfield (indexed but not tokenized).
-        Field languageField = new StringField(FieldNames.LANGUAGE, content.getLanguage(), Field.Store.YES);
-        doc.add(languageField);
+    /**
+     * Delete document from some indexes.
+     *
+     * @param term      Path {@link org.apache.lucene.index.Term}
+     * @param languages Index names
+     * @throws IOException in case of filesystem error
+     * @throws IndexingException in case of indexing error
+     */
+    private void deleteDocument(Term term, Set<String> languages) throws IOException, IndexingException {
+        for (String language : languages) {
+            IndexWriter writer = indexRegistry.getWriter(language);
+            writer.deleteDocuments(term);
+            commitCoordinator.changed(writer);
+        }
+    }
 
-        // Contents = textfield (indexed and tokenized, the content is not stored, no term vectors)
-        Field contentsField = new Field(FieldNames.CONTENTS, ContentExtractor.extractContent(content.getFilePath()), CONTENT_FIELD_TYPE);
-        //TextField contentsField = new TextField(FieldNames.CONTENTS, ContentExtractor.extractContent(content.getFilePath()), Field.Store.NO);
-        doc.add(contentsField);
+    /**
+     * Recover the index that holds a path.
+     *
+     * @param path Content path
+     * @return Index name, null if unknown or if the route table is unavailable
+     */
+    private String findRoute(String path) {
+        try {
+            return routeRepository.find(path);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+            return null;
+        }
+    }
 
-        writer.updateDocument(new Term(FieldNames.PATH, content.getFilePath().toString()),  doc);
+    /**
+     * Route a path to an index.
+     *
+     * @param path Content path
+     * @param name Index name
+     */
+    private void saveRoute(String path, String name) {
+        try {
+            routeRepository.save(path, name);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+        }
     }
 
     /**
-     * Delete document from index.
+     * Remove the route of a path.
      *
-     * @param writer  {@link org.apache.lucene.index.IndexWriter}
-     * @param content {@link Content}
-     * @throws IOException in case of filesystem error
+     * @param path Content path
      */
-    private void deleteDocument(final IndexWriter writer, Content content) throws IOException {
-        writer.deleteDocuments(new Term(FieldNames.PATH, content.getFilePath().toString()));
+    private void removeRoute(String path) {
+        try {
+            routeRepository.remove(path);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+        }
     }
 
 }
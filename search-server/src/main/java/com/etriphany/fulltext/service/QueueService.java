@@ -1,20 +1,42 @@
 package com.etriphany.fulltext.service;
 
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.io.BatchResponse;
 import com.etriphany.fulltext.domain.persistent.IndexRequest;
 import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
-import com.etriphany.fulltext.persistence.IndexRequestRepository;
+import com.etriphany.fulltext.domain.util.Percentiles;
 import com.etriphany.fulltext.persistence.PersistenceException;
+import com.etriphany.fulltext.persistence.QueueStorage;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Content indexing queue service.
+ * <p/>
+ * Requests wait on priority lanes ({@link IndexRequestPriority}). Claims are shared among lanes by weight (smooth
+ * weighted round-robin), a lane with nothing to claim leaves its share to the others.
  *
  * @author cadu.goncalves
  *
@@ -24,11 +46,64 @@ public class QueueService {
 
     private static final Logger LOGGER = LogManager.getLogger(QueueService.class.getName());
 
+    // Latest claims kept for wait percentiles
+    private static final int WAIT_SAMPLES = 1024;
+
+    // Interval between checks for claimed requests while draining (milliseconds)
+    private static final long DRAIN_POLL_MS = 200;
+
     @Autowired
-    private IndexRequestRepository repository;
+    private QueueStorage repository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // Number of requests stored on each transaction (batch adds)
+    @Value("${fulltext.queue.batch}")
+    private Integer batchSize;
+
+    // Claimed requests go back to the queue if not done within the lease (milliseconds)
+    @Value("${fulltext.queue.lease}")
+    private Long leaseMs;
+
+    // Claims of a request before it is failed
+    @Value("${fulltext.queue.max-attempts}")
+    private Integer maxAttempts;
+
+    // Identifies this process on lease owners
+    private final String workerId = ManagementFactory.getRuntimeMXBean().getName();
+
+    // Makes lease owners unique per claim
+    private final AtomicLong claims = new AtomicLong();
+
+    // Share of claims taken by each lane
+    @Value("${fulltext.queue.weight.interactive}")
+    private Integer interactiveWeight;
+
+    @Value("${fulltext.queue.weight.bulk}")
+    private Integer bulkWeight;
+
+    // Claims are paused while indexes are rebuilt
+    private volatile boolean paused;
+
+    // Round-robin credits of each lane
+    private final Map<IndexRequestPriority, Integer> credits = new EnumMap<>(IndexRequestPriority.class);
+
+    // Time spent on queue by claimed requests, per lane (milliseconds)
+    private final Map<IndexRequestPriority, Percentiles> waits = new EnumMap<>(IndexRequestPriority.class);
+
+    public QueueService() {
+        for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+            credits.put(priority, 0);
+            waits.put(priority, new Percentiles(WAIT_SAMPLES));
+        }
+    }
 
     /**
-     * Add a new request to the queue.
+     * Add a new request to the queue, interactive unless told otherwise.
      *
      * @param request {@link IndexRequest}
      */
@@ -36,6 +111,9 @@ public class QueueService {
     public void add(final IndexRequest request) throws IllegalArgumentException {
         LOGGER.debug("Queuing request " + request.toString());
         if (request.isValid()) {
+            if (request.getPriority() == null) {
+                request.setPriority(IndexRequestPriority.INTERACTIVE);
+            }
             try {
                 repository.insert(request);
             } catch (PersistenceException pse) {
@@ -48,6 +126,73 @@ public class QueueService {
         }
     }
 
+    /**
+     * Add many requests to the queue at once.
+     *
+     * @param requests {@link java.util.List} of valid {@link IndexRequest}
+     * @return Number of requests added (duplicated are ignored)
+     */
+    @Transactional
+    public int addAll(final List<IndexRequest> requests) {
+        LOGGER.debug("Queuing " + requests.size() + " requests");
+        try {
+            return repository.insertAll(requests);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+            pse.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Add requests read from a stream: a JSON array or NDJSON (one request per line), bulk unless told otherwise.
+     * <p/>
+     * Requests are parsed one at a time and stored in chunks, each chunk on its own transaction, so memory does not
+     * grow with the input. Chunks stored before a failure are kept.
+     *
+     * @param input Requests stream
+     * @return {@link BatchResponse}
+     */
+    public BatchResponse addAll(final InputStream input) {
+        Batch batch = new Batch();
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                IndexRequest request = read(parser);
+                if (request == null || !request.isValid()) {
+                    ++batch.invalid;
+                } else {
+                    if (request.getPriority() == null) {
+                        request.setPriority(IndexRequestPriority.BULK);
+                    }
+                    batch.chunk.add(request);
+                    if (batch.chunk.size() >= batchSize) {
+                        store(batch);
+                    }
+                }
+                token = parser.nextToken();
+            }
+            store(batch);
+            return batch.toResponse(true, "OK");
+        } catch (IOException ioe) {
+            // Malformed input, keep what was read so far
+            LOGGER.error(ioe);
+            try {
+                store(batch);
+            } catch (PersistenceException pse) {
+                LOGGER.error(pse);
+            }
+            return batch.toResponse(false, "Malformed input: " + ioe.getMessage());
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+            pse.printStackTrace();
+            return batch.toResponse(false, "Storage failure");
+        }
+    }
+
     /**
      * Consume a particular request from the queue.
      *
@@ -81,13 +226,49 @@ public class QueueService {
     }
 
     /**
-     * Lock all queued requests.
+     * Mark a request as failed, so it is not retried.
+     *
+     * @param request {@link IndexRequest}
+     * @param reason  Failure reason
+     */
+    @Transactional
+    public void fail(IndexRequest request, String reason) {
+        LOGGER.warn("Failed request " + request.toString() + " " + reason);
+        try {
+            repository.fail(request, reason);
+        } catch (PersistenceException pse) {
+            LOGGER.error(pse);
+            pse.printStackTrace();
+        }
+    }
+
+    /**
+     * Give up a request that could not be processed once out of attempts, it is claimed again after its lease
+     * expires otherwise.
+     *
+     * @param request {@link IndexRequest} as claimed
+     * @param reason  Failure reason
+     */
+    @Transactional
+    public void retry(IndexRequest request, String reason) {
+        if (request.getAttempts() >= maxAttempts) {
+            fail(request, "Gave up after " + request.getAttempts() + " attempts, " + reason);
+        } else {
+            LOGGER.debug("Retrying request " + request.toString() + " after its lease");
+        }
+    }
+
+    /**
+     * Lock all queued requests, including requests whose lease expired.
      */
     @Transactional
     public void lockAll() {
+        if (paused) {
+            return;
+        }
         LOGGER.debug("Locking all queued requests");
         try {
-            repository.changeStatus(IndexRequestStatus.QUEUED, IndexRequestStatus.LOCKED);
+            repository.claimAll(nextOwner(), leaseMs);
         } catch (PersistenceException pse) {
             LOGGER.error(pse);
             pse.printStackTrace();
@@ -109,49 +290,128 @@ public class QueueService {
     }
 
     /**
-     * Recover a request from the queue, changing its status to consumed.
+     * Lease a block of requests from the queue, changing their status to locked.
+     * <p/>
+     * The block is shared among priority lanes by weight, most urgent lanes first. Requests not purged, consumed nor
+     * failed before the lease expires are claimed again, up to the maximal number of attempts (requests whose worker
+     * died on each attempt are failed then).
      *
-     * @return {@link IndexRequest}
+     * @param size Maximal number of requests to recover
+     * @return {@link java.util.List}
      */
     @Transactional
-    public IndexRequest getSingleAndLock() {
+    public List<IndexRequest> getBatchAndLock(Integer size) {
+        if (paused) {
+            return new ArrayList<>();
+        }
+        String owner = nextOwner();
+        List<IndexRequest> claimed = new ArrayList<>();
         try {
-            IndexRequest request = repository.getNext();
-            if(request != null) {
-                repository.changeStatus(request, IndexRequestStatus.LOCKED);
+            Map<IndexRequestPriority, Integer> shares = share(size);
+            Set<IndexRequestPriority> drained = EnumSet.noneOf(IndexRequestPriority.class);
+            for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+                int share = shares.get(priority);
+                if (share > 0) {
+                    List<IndexRequest> requests = repository.claim(owner, priority, share, leaseMs);
+                    claimed.addAll(requests);
+                    if (requests.size() < share) {
+                        drained.add(priority);
+                    }
+                }
+            }
+
+            // Work conserving, shares left by drained lanes go to any lane not known to be empty (small claims may
+            // have given nothing to the lanes with requests)
+            for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+                if (claimed.size() >= size) {
+                    break;
+                }
+                if (!drained.contains(priority)) {
+                    claimed.addAll(repository.claim(owner, priority, size - claimed.size(), leaseMs));
+                }
             }
-            return request;
         } catch (PersistenceException pse) {
             LOGGER.error(pse);
             pse.printStackTrace();
-            return null;
         }
+
+        long now = System.currentTimeMillis();
+        List<IndexRequest> result = new ArrayList<>(claimed.size());
+        for (IndexRequest request : claimed) {
+            if (request.getAttempts() > maxAttempts) {
+                // Lease expired on every attempt
+                fail(request, "Gave up after " + maxAttempts + " attempts, lease expired");
+                continue;
+            }
+            if (request.getQueuedAt() != null) {
+                waits.get(request.getPriority()).record(now - request.getQueuedAt());
+            }
+            result.add(request);
+        }
+        return result;
+    }
+
+    /**
+     * Stop handing out requests and wait for the claimed ones to be done, queued requests keep waiting until
+     * {@link #resume()}.
+     *
+     * @return False if requests are still claimed once a lease is over (claims are resumed then)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean pause() throws InterruptedException {
+        LOGGER.info("Pausing claims");
+        paused = true;
+        long deadline = System.currentTimeMillis() + leaseMs;
+        int locked;
+        do {
+            // Claims started before the pause are stored by the first check
+            Thread.sleep(DRAIN_POLL_MS);
+            try {
+                locked = repository.countInStatus(IndexRequestStatus.LOCKED);
+            } catch (PersistenceException pse) {
+                LOGGER.error(pse);
+                locked = -1;
+            }
+        } while (locked != 0 && System.currentTimeMillis() < deadline);
+
+        if (locked != 0) {
+            LOGGER.warn("Claimed requests not done within a lease, resuming claims");
+            resume();
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Count all valid requests.
+     * Hand out requests again after {@link #pause()}.
      */
-    public Integer countLockedRequests() {
-        int locked = 0;
+    public void resume() {
+        LOGGER.info("Resuming claims");
+        paused = false;
+    }
+
+    /**
+     * Count failed requests.
+     */
+    public Integer countFailedRequests() {
         try {
-            locked = repository.countInStatus(IndexRequestStatus.LOCKED);
+            return repository.countInStatus(IndexRequestStatus.FAILED);
         } catch (PersistenceException pse) {
             LOGGER.error(pse);
             pse.printStackTrace();
+            return 0;
         }
-        LOGGER.debug("Total of locked requests = " + locked);
-        return locked;
     }
 
     /**
-     * Recover a page of requests locked in the queue.
+     * Recover the next page of requests locked in the queue.
      *
-     * @param page The page return (0...n)
-     * @return {@link java.util.List}
+     * @param after Last request of the previous page, null for the first page
+     * @return {@link java.util.List}, empty when there is nothing left
      */
-    public List<IndexRequest> getLockedRequests(Integer page) {
+    public List<IndexRequest> getLockedRequests(IndexRequest after) {
         try {
-            return repository.listLocked(page);
+            return repository.listLocked(after);
         } catch (PersistenceException pse) {
             LOGGER.error(pse);
             pse.printStackTrace();
@@ -160,18 +420,127 @@ public class QueueService {
     }
 
     /**
-     * Compute the number of pages.
+     * Collect queue metrics, per priority lane.
+     *
+     * @return {@link java.util.Map} of depth (queued requests) and wait times (milliseconds) by lane
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+            Map<String, Object> lane = new LinkedHashMap<>();
+            try {
+                lane.put("depth", repository.countQueued(priority));
+            } catch (PersistenceException pse) {
+                LOGGER.error(pse);
+                pse.printStackTrace();
+            }
+            lane.put("waitMillis", waits.get(priority).toMap());
+            stats.put(priority.name().toLowerCase(), lane);
+        }
+        return stats;
+    }
+
+    /**
+     * Split a claim among priority lanes by weight.
+     * <p/>
+     * Credits carry over between claims, so lanes get their share even when claims are small (single requests).
      *
-     * @param total Total of elements
-     * @return Total of pages
+     * @param size Number of requests to claim
+     * @return Number of requests to claim from each lane
      */
-    public Integer computePages(Integer total) {
-        Integer pages = total / IndexRequestRepository.PAGE_SIZE;
+    private synchronized Map<IndexRequestPriority, Integer> share(int size) {
+        Map<IndexRequestPriority, Integer> shares = new EnumMap<>(IndexRequestPriority.class);
+        int total = 0;
+        for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+            shares.put(priority, 0);
+            total += weightOf(priority);
+        }
+        for (int i = 0; i < size; ++i) {
+            IndexRequestPriority next = null;
+            for (IndexRequestPriority priority : IndexRequestPriority.values()) {
+                credits.put(priority, credits.get(priority) + weightOf(priority));
+                if (next == null || credits.get(priority) > credits.get(next)) {
+                    next = priority;
+                }
+            }
+            credits.put(next, credits.get(next) - total);
+            shares.put(next, shares.get(next) + 1);
+        }
+        return shares;
+    }
+
+    private int weightOf(IndexRequestPriority priority) {
+        return priority == IndexRequestPriority.INTERACTIVE ? interactiveWeight : bulkWeight;
+    }
+
+    /**
+     * Build a lease owner.
+     *
+     * @return Owner unique per claim
+     */
+    private String nextOwner() {
+        return workerId + "#" + claims.incrementAndGet();
+    }
+
+    /**
+     * Read the next request of a stream.
+     *
+     * @param parser {@link com.fasterxml.jackson.core.JsonParser} on the request first token
+     * @return {@link IndexRequest} or null if it can not be mapped
+     * @throws IOException if the stream is malformed
+     */
+    private IndexRequest read(JsonParser parser) throws IOException {
+        JsonNode node = parser.readValueAsTree();
+        try {
+            return objectMapper.treeToValue(node, IndexRequest.class);
+        } catch (JsonProcessingException jpe) {
+            LOGGER.debug("Invalid IndexRequest " + node);
+            return null;
+        }
+    }
 
-        if (total % IndexRequestRepository.PAGE_SIZE != 0) {
-            pages = pages + 1;
+    /**
+     * Store the pending chunk of a batch on a single transaction.
+     *
+     * @param batch {@link Batch}
+     * @throws PersistenceException in case of storage error
+     */
+    private void store(Batch batch) throws PersistenceException {
+        if (batch.chunk.isEmpty()) {
+            return;
+        }
+        Integer added;
+        try {
+            added = transactionTemplate.execute(status -> {
+                try {
+                    return repository.insertAll(batch.chunk);
+                } catch (PersistenceException pse) {
+                    throw new IllegalStateException(pse);
+                }
+            });
+        } catch (IllegalStateException ise) {
+            throw (PersistenceException) ise.getCause();
         }
+        batch.accepted += added;
+        batch.duplicated += batch.chunk.size() - added;
+        batch.chunk.clear();
+    }
 
-        return pages;
+    /**
+     * Batch accounting.
+     */
+    private static final class Batch {
+
+        private final List<IndexRequest> chunk = new ArrayList<>();
+
+        private long accepted;
+
+        private long duplicated;
+
+        private long invalid;
+
+        BatchResponse toResponse(boolean success, String message) {
+            return new BatchResponse(success, message, accepted, duplicated, invalid);
+        }
     }
 }
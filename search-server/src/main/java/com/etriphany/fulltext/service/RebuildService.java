@@ -0,0 +1,395 @@
+package com.etriphany.fulltext.service;
+
+import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.io.CrawlRequest;
+import com.etriphany.fulltext.domain.io.RebuildStatus;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import com.etriphany.fulltext.service.core.ExtractedContent;
+import com.etriphany.fulltext.service.core.IndexRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Offline index rebuild service.
+ * <p/>
+ * Rebuilds all language indexes from a directory tree without going through the queue nor the shared writers:
+ * <ul>
+ * <li>Files are spread over partitions built in parallel, each partition has its own private writers (one per
+ * language) on a temporary location</li>
+ * <li>Once all partitions are built, each live language index is replaced by its partitions
+ * ({@link org.apache.lucene.index.IndexWriter#addIndexes(org.apache.lucene.store.Directory...)}) in a single
+ * commit, so searchers never see a half built index</li>
+ * </ul>
+ * Rebuilds run offline: queue claims are paused (requests already claimed are done first) and resumed after the
+ * swap, so requests queued meanwhile are indexed on top of the rebuilt indexes instead of being dropped by the swap.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Service
+public class RebuildService {
+
+    private static final Logger LOGGER = LogManager.getLogger(RebuildService.class.getName());
+
+    // Tells partition builders there are no more files
+    private static final Path END = Paths.get("");
+
+    // Number of files waiting for a partition builder
+    private static final int BACKLOG = 1000;
+
+    @Autowired
+    private IndexService indexService;
+
+    @Autowired
+    private IndexRegistry indexRegistry;
+
+    @Autowired
+    private QueueService queueService;
+
+    // Number of partitions built in parallel
+    @Value("${fulltext.rebuild.parallelism}")
+    private Integer parallelism;
+
+    // Location of partitions while built
+    @Value("${fulltext.rebuild.path}")
+    private String rebuildPath;
+
+    // Holds rebuild progress
+    private final ConcurrentMap<String, RebuildStatus> rebuilds = new ConcurrentHashMap<>();
+
+    // Only one rebuild at a time
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Start rebuilding all indexes from a directory.
+     *
+     * @param request {@link CrawlRequest} (operation is ignored)
+     * @return {@link RebuildStatus}
+     * @throws IllegalArgumentException if the request is invalid or root is not a directory
+     * @throws IllegalStateException if a rebuild is already running
+     */
+    public RebuildStatus start(final CrawlRequest request) throws IllegalArgumentException, IllegalStateException {
+        if (!request.isValid()) {
+            LOGGER.error("Invalid CrawlRequest object");
+            throw new IllegalArgumentException();
+        }
+        final Path root = Paths.get(request.getRoot()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            LOGGER.error("Rebuild root must be a directory");
+            throw new IllegalArgumentException();
+        }
+        if (!running.compareAndSet(false, true)) {
+            LOGGER.error("Rebuild already running");
+            throw new IllegalStateException();
+        }
+
+        final List<PathMatcher> includes = CrawlService.buildMatchers(request.getIncludes());
+        final List<PathMatcher> excludes = CrawlService.buildMatchers(request.getExcludes());
+        final RebuildStatus status = new RebuildStatus(UUID.randomUUID().toString(), root.toString(), parallelism);
+        rebuilds.put(status.getId(), status);
+
+        LOGGER.info("Rebuild started " + status.toString());
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild(root, includes, excludes, status);
+            } finally {
+                queueService.resume();
+                running.set(false);
+                status.finish();
+                LOGGER.info("Rebuild finished " + status.toString());
+            }
+        }, "rebuild");
+        thread.start();
+        return status;
+    }
+
+    /**
+     * Recover rebuild progress.
+     *
+     * @param id Rebuild id
+     * @return {@link RebuildStatus} or null if unknown
+     */
+    public RebuildStatus getStatus(String id) {
+        return rebuilds.get(id);
+    }
+
+    /**
+     * Build partitions and swap them in.
+     *
+     * @param root     Root directory
+     * @param includes Files to include
+     * @param excludes Files and directories to exclude
+     * @param status   {@link RebuildStatus}
+     */
+    private void rebuild(Path root, List<PathMatcher> includes, List<PathMatcher> excludes, RebuildStatus status) {
+        Path workspace = Paths.get(rebuildPath, status.getId()).toAbsolutePath();
+        ExecutorService builders = Executors.newFixedThreadPool(parallelism);
+        try {
+            // Drain
+            if (!queueService.pause()) {
+                status.fail("Queue requests still in flight");
+                return;
+            }
+
+            // Build
+            status.setPhase(RebuildStatus.Phase.BUILDING);
+            BlockingQueue<Path> files = new ArrayBlockingQueue<>(BACKLOG);
+            List<PartitionBuilder> partitionBuilders = new ArrayList<>();
+            List<Future<Map<String, Path>>> partitions = new ArrayList<>();
+            for (int i = 0; i < parallelism; ++i) {
+                PartitionBuilder builder = new PartitionBuilder(workspace.resolve("p" + i), files, status);
+                partitionBuilders.add(builder);
+                partitions.add(builders.submit(builder));
+            }
+            try {
+                walk(root, includes, excludes, files, partitions, status);
+            } finally {
+                for (int i = 0; i < parallelism; ++i) {
+                    if (!handOver(END, files, partitions)) {
+                        break;
+                    }
+                }
+            }
+
+            Map<String, List<Path>> sources = new HashMap<>();
+            for (Future<Map<String, Path>> partition : partitions) {
+                for (Map.Entry<String, Path> entry : partition.get().entrySet()) {
+                    sources.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(entry.getValue());
+                }
+            }
+
+            // Swap, languages not found anymore become empty
+            status.setPhase(RebuildStatus.Phase.MERGING);
+            Set<String> languages = new TreeSet<>(indexRegistry.getIndexedLanguages());
+            languages.addAll(sources.keySet());
+            for (String language : languages) {
+                indexService.replaceIndex(language, sources.getOrDefault(language, Collections.emptyList()));
+                LOGGER.info("Index " + language + " rebuilt");
+            }
+            for (PartitionBuilder builder : partitionBuilders) {
+                indexService.saveRoutes(builder.routes);
+            }
+            status.setPhase(RebuildStatus.Phase.DONE);
+        } catch (IOException | IndexingException | ExecutionException e) {
+            LOGGER.error(e);
+            status.fail(String.valueOf(e.getMessage()));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            status.fail("Interrupted");
+        } finally {
+            builders.shutdownNow();
+            delete(workspace);
+        }
+    }
+
+    /**
+     * Walk the directory tree handing files over to partition builders.
+     *
+     * @throws IOException in case of filesystem error, or if every partition builder stopped
+     */
+    private static void walk(final Path root, final List<PathMatcher> includes, final List<PathMatcher> excludes,
+                             final BlockingQueue<Path> files, final List<Future<Map<String, Path>>> partitions,
+                             final RebuildStatus status) throws IOException, InterruptedException {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && CrawlService.matches(excludes, root.relativize(dir))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path relative = root.relativize(file);
+                    if (attrs.isRegularFile() && !CrawlService.matches(excludes, relative)
+                            && (includes.isEmpty() || CrawlService.matches(includes, relative))) {
+                        try {
+                            if (!handOver(file, files, partitions)) {
+                                throw new IOException("Partition builders stopped");
+                            }
+                            status.addFile();
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    LOGGER.error(exc);
+                    status.addError();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Hand a file over to partition builders, waiting while they are busy.
+     *
+     * @param file File
+     * @param files Files waiting for a partition builder
+     * @param partitions Partition builders
+     * @return False if every partition builder stopped (nothing would ever take the file)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static boolean handOver(Path file, BlockingQueue<Path> files, List<Future<Map<String, Path>>> partitions)
+            throws InterruptedException {
+        while (!files.offer(file, 1, TimeUnit.SECONDS)) {
+            if (partitions.stream().allMatch(Future::isDone)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove a directory tree.
+     *
+     * @param directory Directory
+     */
+    private static void delete(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ioe) {
+                    LOGGER.error(ioe);
+                }
+            });
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+        }
+    }
+
+    /**
+     * Build a partition: indexes the files it takes, one private writer per language.
+     */
+    private final class PartitionBuilder implements Callable<Map<String, Path>> {
+
+        private final Path location;
+
+        private final BlockingQueue<Path> files;
+
+        private final RebuildStatus status;
+
+        // Writers by index name
+        private final Map<String, IndexWriter> writers = new HashMap<>();
+
+        // Index names by path, saved once partitions are swapped in
+        private final Map<String, String> routes = new HashMap<>();
+
+        PartitionBuilder(Path location, BlockingQueue<Path> files, RebuildStatus status) {
+            this.location = location;
+            this.files = files;
+            this.status = status;
+        }
+
+        /**
+         * Build the partition.
+         *
+         * @return Partition index locations by index name
+         */
+        @Override
+        public Map<String, Path> call() throws IOException, InterruptedException {
+            Map<String, Path> built = new HashMap<>();
+            try {
+                Path file;
+                while ((file = files.take()) != END) {
+                    index(file);
+                }
+            } finally {
+                // Writers commit on close
+                for (Map.Entry<String, IndexWriter> entry : writers.entrySet()) {
+                    IndexWriter writer = entry.getValue();
+                    writer.close();
+                    writer.getDirectory().close();
+                    built.put(entry.getKey(), location.resolve(entry.getKey()));
+                }
+            }
+            return built;
+        }
+
+        /**
+         * Index a single file, failures are counted and do not stop the partition.
+         *
+         * @param file File
+         */
+        private void index(Path file) {
+            Content content = new Content();
+            content.setId(file.toString());
+            content.setPath(file.toString());
+            IndexRequest request = new IndexRequest();
+            request.setContent(content);
+            request.setOperation(ContentOperation.ADD);
+
+            try {
+                ExtractedContent extracted = indexService.extract(request);
+                IndexWriter writer = getWriter(extracted);
+                indexService.add(extracted, writer);
+                status.addIndexed();
+                routes.put(content.getFilePath().toString(), indexRegistry.getIndexName(extracted.getLanguage()));
+            } catch (IndexingException ie) {
+                LOGGER.error(ie);
+                status.addError();
+            } catch (RuntimeException re) {
+                // Keep the builder alive, the walk waits on it
+                LOGGER.error("Rebuild failed on " + file, re);
+                status.addError();
+            }
+        }
+
+        /**
+         * Recover the partition writer of the extracted content language.
+         *
+         * @param extracted {@link ExtractedContent} (closed if the writer cannot be opened)
+         * @return {@link org.apache.lucene.index.IndexWriter}
+         * @throws IndexingException in case of indexing error
+         */
+        private IndexWriter getWriter(ExtractedContent extracted) throws IndexingException {
+            String name = indexRegistry.getIndexName(extracted.getLanguage());
+            IndexWriter writer = writers.get(name);
+            if (writer == null) {
+                try {
+                    writer = indexRegistry.openWriter(location.resolve(name), name);
+                } catch (IOException ioe) {
+                    LOGGER.error(ioe);
+                    try {
+                        extracted.close();
+                    } catch (IOException e) {
+                        LOGGER.error(e);
+                    }
+                    throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+                }
+                writers.put(name, writer);
+                status.addLanguage(name);
+            }
+            return writer;
+        }
+    }
+}
@@ -6,25 +6,26 @@ import com.etriphany.fulltext.domain.io.SearchRequest;
 import com.etriphany.fulltext.domain.io.SearchResponse;
 import com.etriphany.fulltext.domain.SearchException;
 import com.etriphany.fulltext.domain.util.FieldNames;
-import com.etriphany.fulltext.service.core.AnalyzerFactory;
-import com.etriphany.fulltext.service.core.IndexSearcherFactory;
+import com.etriphany.fulltext.service.core.CursorRegistry;
+import com.etriphany.fulltext.service.core.IndexRegistry;
 import com.etriphany.fulltext.service.core.LanguageExtractor;
+import com.etriphany.fulltext.service.core.LeasedSearcher;
+import com.etriphany.fulltext.service.core.ParallelSearcherFactory;
+import com.etriphany.fulltext.service.core.ResultCache;
+import com.etriphany.fulltext.service.core.ScaledScoreCollector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 /**
  * Content search service.
@@ -39,19 +40,29 @@ public class SearchService {
 
     private static final Logger LOGGER = LogManager.getLogger(SearchService.class.getName());
 
-    // The index path must defined externally using parameter
-    @Value("${fulltext.index.path}")
-    private String indexPathParameter;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
     @Autowired
     private LanguageExtractor languageDetectorUtil;
 
+    @Autowired
+    private IndexRegistry indexRegistry;
+
+    @Autowired
+    private CursorRegistry cursorRegistry;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private ParallelSearcherFactory searcherFactory;
+
     /**
      * Search contents.
      *
      * @param request {@link SearchRequest}
      * @return {@link SearchResponse}
-     * @throws SearchException in case of search error
+     * @throws SearchException in case of search error, or if the cursor of a next page expired
      */
     public SearchResponse search(SearchRequest request) throws SearchException {
         if (!request.isValid()) {
@@ -59,20 +70,66 @@ public class SearchService {
             throw new IllegalArgumentException();
         }
 
-        try {
-            Path indexPath = Paths.get(indexPathParameter);
-
-            // Compute requested languages
-            Set<String> languages = processLanguages(request);
+        // Compute requested languages
+        Set<String> languages = processLanguages(request);
 
-            // Build searcher
-            IndexSearcher searcher = buildSearcher(languages, indexPath);
-
-            // Build analyzer
-            Analyzer analyzer = buildAnalyzer(languages);
+        try {
+            // Next pages run on the searcher pinned by the first one
+            DeepPage deepPage = DeepPage.fromString(request.getDeep());
+            if (deepPage != null) {
+                CursorRegistry.Cursor cursor = deepPage.getCursor() == null ? null : cursorRegistry.acquire(deepPage.getCursor());
+                if (cursor == null) {
+                    // Marks only line up with the searcher they were taken on, the client must start over
+                    LOGGER.debug("Cursor " + deepPage.getCursor() + " expired");
+                    throw new SearchException(SearchException.ErrorType.CURSOR_EXPIRED);
+                }
+                try {
+                    // Pinned searchers never change
+                    String key = key(request.getQuery(), cursor.getLeased(), deepPage);
+                    SearchResponse response = resultCache.get(key, cursor.getId());
+                    if (response == null) {
+                        Query[] queries = parse(request.getQuery(), cursor.getLeased());
+                        Page page = collect(queries, cursor.getLeased(), deepPage, cursor.getScales());
+                        response = buildResponse(cursor.getSearcher(), deepPage, cursor.getId(), cursor.getTotal(),
+                                Arrays.asList(page.topDocs.scoreDocs));
+                        resultCache.put(key, cursor.getId(), response);
+                    }
+                    return response;
+                } finally {
+                    cursorRegistry.release(cursor);
+                }
+            }
 
-            // Proceed search
-            return search(request, searcher, analyzer);
+            // Acquire searcher, pinned by a new cursor if there are more pages (released when done otherwise)
+            LeasedSearcher leased = indexRegistry.acquire(languages);
+            String generation = leased.getGeneration();
+            try {
+                String key = key(request.getQuery(), leased, null);
+                SearchResponse response = resultCache.get(key, generation);
+                if (response != null && touch(response)) {
+                    return response;
+                }
+                Page page = collect(parse(request.getQuery(), leased), leased, null, null);
+                List<ScoreDoc> scoreDocs = Arrays.asList(page.topDocs.scoreDocs);
+                int total = (int) page.topDocs.totalHits;
+                if (scoreDocs.size() == PAGE_SIZE) {
+                    CursorRegistry.Cursor cursor = cursorRegistry.open(leased, total, page.scales);
+                    leased = null;
+                    try {
+                        response = buildResponse(cursor.getSearcher(), null, cursor.getId(), cursor.getTotal(), scoreDocs);
+                    } finally {
+                        cursorRegistry.release(cursor);
+                    }
+                } else {
+                    response = buildResponse(leased.getSearcher(), null, null, total, scoreDocs);
+                }
+                resultCache.put(key, generation, response);
+                return response;
+            } finally {
+                if (leased != null) {
+                    leased.close();
+                }
+            }
         } catch (ParseException pse) {
             LOGGER.error(pse);
             throw new SearchException(SearchException.ErrorType.QUERY_PARSE_FAILURE, pse);
@@ -100,83 +157,185 @@ public class SearchService {
     }
 
     /**
-     * Build searcher that matches request languages.
+     * Keep alive the cursor handed out by a cached first page, the cache outlives idle cursors.
      *
-     * @param languages {@link java.util.Set} of languages
-     * @param indexPath Index root path
-     * @return {@link org.apache.lucene.search.IndexSearcher}
-     * @throws SearchException in case of search error
+     * @param response Cached {@link SearchResponse}
+     * @return False if its cursor is gone (the page must be collected again, pinning a new cursor)
      */
-    private IndexSearcher buildSearcher(Set<String> languages, Path indexPath) throws SearchException {
-        if(languages.size() == 1) {
-            // Single index searcher
-            return IndexSearcherFactory.getInstance(indexPath, languages.iterator().next());
-        } else {
-            // Multiple index searcher
-            return IndexSearcherFactory.getInstance(indexPath, languages, false);
+    private boolean touch(SearchResponse response) {
+        DeepPage next = DeepPage.fromString(response.getDeep());
+        if (next == null || next.getCursor() == null) {
+            return true;
         }
+        CursorRegistry.Cursor cursor = cursorRegistry.acquire(next.getCursor());
+        if (cursor == null) {
+            return false;
+        }
+        cursorRegistry.release(cursor);
+        return true;
     }
 
     /**
-     * Build analyzer that matches request languages.
+     * Parse the query once per searched index, with the analyzer its contents were indexed with.
      *
-     * @param languages  {@link java.util.Set} of languages
-     * @return {@link org.apache.lucene.analysis.Analyzer}
+     * @param query Input query
+     * @param leased {@link LeasedSearcher}
+     * @return Parsed query of each index (same order of {@link LeasedSearcher#getLanguages()})
+     * @throws ParseException in case of query parse error
      */
-    private Analyzer buildAnalyzer(Set<String> languages) {
-        if(languages.size() == 1) {
-            // Analyzer that matches the index's language
-            return AnalyzerFactory.getInstance(languages.iterator().next());
-        } else {
-            // TODO: How to use single analyzer with multireader and get decent results?
-            return new StandardAnalyzer();
+    private Query[] parse(String query, LeasedSearcher leased) throws ParseException {
+        Query[] queries = new Query[leased.getLanguages().size()];
+        for (int i = 0; i < queries.length; ++i) {
+            queries[i] = new QueryParser(FieldNames.CONTENTS, leased.getAnalyzer(i)).parse(query);
         }
+        return queries;
     }
 
     /**
-     * Full text search.
+     * Same query on the same indexes and page gets the same response from the same searcher. The key is built from
+     * the raw query, so cache hits skip the query parsing.
      *
-     * @param request {@link SearchRequest}
-     * @param searcher {@link org.apache.lucene.search.IndexSearcher}
-     * @param analyzer {@link org.apache.lucene.analysis.Analyzer}
-     * @return {@link SearchResponse}
-     * @throws ParseException in case of search error
+     * @param query Input query
+     * @param leased {@link LeasedSearcher}
+     * @param deepPage Deep paging status (null on first page)
+     * @return Cache key
+     */
+    private static String key(String query, LeasedSearcher leased, DeepPage deepPage) {
+        // Whitespace only separates terms
+        return leased.getLanguages() + " " + deepPage + " " + WHITESPACE.matcher(query.trim()).replaceAll(" ");
+    }
+
+    /**
+     * Collect a page of matches.
+     * <p/>
+     * A single index is searched as is. Many indexes are searched concurrently, each one with its own query, and
+     * their scores are scaled by the top score of each index before merging (raw scores of different analyzers and
+     * statistics do not compare). Scales are computed on the first page and reused by the next ones.
+     *
+     * @param queries Parsed query of each index
+     * @param leased {@link LeasedSearcher}
+     * @param deepPage Deep paging status (null on first page)
+     * @param scales Score scale of each index (null on first page)
+     * @return {@link Page}
+     * @throws IOException in case of filesystem error
+     */
+    private Page collect(Query[] queries, LeasedSearcher leased, DeepPage deepPage, float[] scales) throws IOException {
+        ScoreDoc after = deepPage == null ? null : new ScoreDoc(deepPage.getDoc(), deepPage.getScore());
+        if (queries.length == 1) {
+            return new Page(collect(queries[0], leased.getSearcher(), after), null);
+        }
+
+        // First document of each index in the searcher spanning all of them
+        int[] bases = new int[queries.length];
+        for (int i = 1; i < bases.length; ++i) {
+            bases[i] = bases[i - 1] + leased.getReader(i - 1).maxDoc();
+        }
+
+        if (scales == null) {
+            // First page, raw scores tell the top score of each index
+            List<TopDocs> pages = collect(queries, leased, bases, null, null);
+            scales = new float[queries.length];
+            for (int i = 0; i < scales.length; ++i) {
+                float max = pages.get(i).getMaxScore();
+                scales[i] = max > 0 ? 1f / max : 1f;
+            }
+            return new Page(merge(pages, scales), scales);
+        }
+        return new Page(merge(collect(queries, leased, bases, scales, after), null), scales);
+    }
+
+    /**
+     * Collect a page of matches of each index, concurrently.
+     *
+     * @param queries Parsed query of each index
+     * @param leased {@link LeasedSearcher}
+     * @param bases First document of each index
+     * @param scales Score scale of each index (null for raw scores)
+     * @param after Last match of the previous page (null on first page)
+     * @return {@link org.apache.lucene.search.TopDocs} of each index
      * @throws IOException in case of filesystem error
      */
-    private SearchResponse search(final SearchRequest request, final IndexSearcher searcher, final Analyzer analyzer) throws ParseException, IOException {
-        // Use QueryParser to construct the query based on input query
-        Query query = new QueryParser(FieldNames.CONTENTS, analyzer).parse(request.getQuery());
-
-        // Compute basic paging stuff (simple when using Lucene deep paging)
-        Integer total = countMatches(query, searcher);
-
-        // Search considering paging (keeping in mind that ScoreDoc is a "GoF flyweight")
-        DeepPage deepPage = DeepPage.fromString(request.getDeep());
-        List<ScoreDoc> scoreDocs;
-        if(deepPage == null) {
-            TopScoreDocCollector docCollector = TopScoreDocCollector.create(total);
-            searcher.search(query, docCollector);
-            scoreDocs = Arrays.asList(docCollector.topDocs(0, PAGE_SIZE).scoreDocs);
-        } else {
-            ScoreDoc after = new ScoreDoc(deepPage.getDoc(), deepPage.getScore());
-            TopDocs topDocs = searcher.searchAfter(after, query, total);
-            // Must limit based on page size or we will return all matches at once latter.
-            scoreDocs = Arrays.asList(Arrays.copyOf(topDocs.scoreDocs, PAGE_SIZE));
+    private List<TopDocs> collect(final Query[] queries, final LeasedSearcher leased, final int[] bases,
+                                  final float[] scales, final ScoreDoc after) throws IOException {
+        List<Callable<TopDocs>> tasks = new ArrayList<>();
+        for (int i = 0; i < queries.length; ++i) {
+            final int index = i;
+            tasks.add(() -> {
+                // Plain searcher on each index, the pool already runs one task per index
+                ScaledScoreCollector collector = new ScaledScoreCollector(PAGE_SIZE, bases[index],
+                        scales == null ? 1f : scales[index], after);
+                new IndexSearcher(leased.getReader(index)).search(queries[index], collector);
+                return collector.topDocs();
+            });
+        }
+        return searcherFactory.invokeAll(tasks);
+    }
+
+    /**
+     * Merge the pages of many indexes.
+     *
+     * @param pages {@link org.apache.lucene.search.TopDocs} of each index
+     * @param scales Score scale of each index (null if already scaled)
+     * @return {@link org.apache.lucene.search.TopDocs}
+     */
+    private static TopDocs merge(List<TopDocs> pages, float[] scales) {
+        long totalHits = 0;
+        List<ScoreDoc> scoreDocs = new ArrayList<>();
+        for (int i = 0; i < pages.size(); ++i) {
+            totalHits += pages.get(i).totalHits;
+            for (ScoreDoc scoreDoc : pages.get(i).scoreDocs) {
+                scoreDocs.add(scales == null ? scoreDoc : new ScoreDoc(scoreDoc.doc, scoreDoc.score * scales[i]));
+            }
         }
-        return buildResponse(searcher, deepPage, total, scoreDocs );
+        scoreDocs.sort(ScaledScoreCollector.BEST_FIRST);
+        ScoreDoc[] top = scoreDocs.subList(0, Math.min(PAGE_SIZE, scoreDocs.size())).toArray(new ScoreDoc[0]);
+        return new TopDocs(totalHits, top, top.length > 0 ? top[0].score : Float.NaN);
+    }
+
+    /**
+     * Collect a page of matches, the same pass counts all matches (keeping in mind that ScoreDoc is a "GoF
+     * flyweight").
+     * <p/>
+     * Each slice of the searcher collects its own page (in parallel when the searcher has an executor), pages are
+     * merged afterwards.
+     *
+     * @param query {@link org.apache.lucene.search.Query}
+     * @param searcher {@link org.apache.lucene.search.IndexSearcher}
+     * @param after Last match of the previous page (null on first page)
+     * @return {@link org.apache.lucene.search.TopDocs}
+     * @throws IOException in case of filesystem error
+     */
+    private TopDocs collect(final Query query, final IndexSearcher searcher, final ScoreDoc after) throws IOException {
+        return searcher.search(query, new CollectorManager<TopScoreDocCollector, TopDocs>() {
+            @Override
+            public TopScoreDocCollector newCollector() {
+                return TopScoreDocCollector.create(PAGE_SIZE, after);
+            }
+
+            @Override
+            public TopDocs reduce(Collection<TopScoreDocCollector> collectors) {
+                TopDocs[] pages = new TopDocs[collectors.size()];
+                int i = 0;
+                for (TopScoreDocCollector collector : collectors) {
+                    pages[i++] = collector.topDocs();
+                }
+                return TopDocs.merge(0, PAGE_SIZE, pages, true);
+            }
+        });
     }
 
     /**
      * Build search response.
      *
      * @param searcher {@link org.apache.lucene.search.IndexSearcher}
-     * @param total Total of matches
      * @param deepPage Deep paging status
+     * @param cursor Cursor that pins the searcher
+     * @param total Total of matches
      * @param scoreDocs {@link java.util.List} of matched documents
      * @return SearchResponse
      * @throws IOException in case of filesystem error
      */
-    private SearchResponse buildResponse(final IndexSearcher searcher, DeepPage deepPage, Integer total, final List<ScoreDoc> scoreDocs) throws IOException {
+    private SearchResponse buildResponse(final IndexSearcher searcher, DeepPage deepPage, String cursor, Integer total, final List<ScoreDoc> scoreDocs) throws IOException {
         // Extract flyweight contents and convert to our domain
         List<Content> matches = new ArrayList<>();
         ScoreDoc lastMatch = null;
@@ -202,7 +361,7 @@ public class SearchService {
                 // Nothing more to load at this point
                 deep = "";
             } else {
-                deep = new DeepPage(lastMatch.doc, lastMatch.score).toString();
+                deep = new DeepPage(cursor, lastMatch.doc, lastMatch.score).toString();
             }
         }
 
@@ -211,17 +370,18 @@ public class SearchService {
     }
 
     /**
-     * Compute the total of documents that match the query.
-     *
-     * @param query    {@link org.apache.lucene.search.Query}
-     * @param searcher {@link org.apache.lucene.search.IndexSearcher}
-     * @return Total of matched documents
-     * @throws IOException in case of filesystem error
+     * A page of matches and the score scales it was collected with.
      */
-    private Integer countMatches(final Query query, final IndexSearcher searcher) throws IOException {
-        TotalHitCountCollector totalCollector = new TotalHitCountCollector();
-        searcher.search(query, totalCollector);
-        return totalCollector.getTotalHits();
-    }
+    private static final class Page {
+
+        private final TopDocs topDocs;
 
+        // Score scale of each index (null on single index searches)
+        private final float[] scales;
+
+        private Page(TopDocs topDocs, float[] scales) {
+            this.topDocs = topDocs;
+            this.scales = scales;
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package com.etriphany.fulltext.service;
+
+import com.etriphany.fulltext.component.schedule.PipelineIndexer;
+import com.etriphany.fulltext.component.watch.FileWatcher;
+import com.etriphany.fulltext.service.core.ContentExtractor;
+import com.etriphany.fulltext.service.core.CursorRegistry;
+import com.etriphany.fulltext.service.core.ExtractionWorkers;
+import com.etriphany.fulltext.service.core.ResultCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runtime metrics service.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Service
+public class StatsService {
+
+    @Autowired
+    private IndexService indexService;
+
+    @Autowired
+    private CrawlService crawlService;
+
+    @Autowired
+    private QueueService queueService;
+
+    @Autowired
+    private ExtractionWorkers extractionWorkers;
+
+    @Autowired
+    private CursorRegistry cursorRegistry;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired(required = false)
+    private PipelineIndexer pipelineIndexer;
+
+    @Autowired(required = false)
+    private FileWatcher fileWatcher;
+
+    /**
+     * Collect metrics from all components.
+     *
+     * @return {@link java.util.Map} of metrics grouped by component
+     */
+    public Map<String, Object> collect() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        // Content extraction
+        Map<String, Object> extraction = ContentExtractor.getStats();
+        if (extractionWorkers.isEnabled()) {
+            extraction.put("workers", extractionWorkers.getStats());
+        }
+        stats.put("extraction", extraction);
+
+        // Indexing
+        Map<String, Object> indexing = new LinkedHashMap<>();
+        indexing.put("truncated", indexService.getTruncated());
+        indexing.put("skipped", indexService.getSkipped());
+        indexing.put("failed", queueService.countFailedRequests());
+        indexing.put("bulkLoad", indexService.isBulkLoad());
+        stats.put("indexing", indexing);
+
+        // Queue lanes
+        stats.put("queue", queueService.getStats());
+
+        // Indexing pipeline (optional)
+        if (pipelineIndexer != null) {
+            stats.put("pipeline", pipelineIndexer.getStats());
+        }
+
+        // Searching
+        Map<String, Object> search = new LinkedHashMap<>();
+        search.put("cursors", cursorRegistry.size());
+        search.put("pinned", cursorRegistry.pinned());
+        search.put("cache", resultCache.getStats());
+        stats.put("search", search);
+
+        // Crawling
+        stats.put("crawls", crawlService.getAll());
+
+        // Watching (optional)
+        if (fileWatcher != null) {
+            Map<String, Object> watch = new LinkedHashMap<>();
+            watch.put("events", fileWatcher.getEvents());
+            watch.put("pending", fileWatcher.getPending());
+            watch.put("queued", fileWatcher.getQueued());
+            stats.put("watch", watch);
+        }
+
+        return stats;
+    }
+}
@@ -6,18 +6,17 @@ import com.etriphany.fulltext.domain.util.ContentTermFrequencyComparator;
 import com.etriphany.fulltext.domain.io.TermsRequest;
 import com.etriphany.fulltext.domain.io.TermsResponse;
 import com.etriphany.fulltext.domain.util.FieldNames;
-import com.etriphany.fulltext.service.core.IndexSearcherFactory;
+import com.etriphany.fulltext.service.core.IndexRegistry;
+import com.etriphany.fulltext.service.core.LeasedSearcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.util.BytesRef;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -34,9 +33,8 @@ public class TermsService {
 
     private static final Logger LOGGER = LogManager.getLogger(TermsService.class.getName());
 
-    // The index path must defined externally using parameter
-    @Value("${fulltext.index.path}")
-    private String indexPathParameter;
+    @Autowired
+    private IndexRegistry indexRegistry;
 
     /**
      * Terms recovery.
@@ -45,11 +43,9 @@ public class TermsService {
      * @return {@link TermsResponse}
      */
     public TermsResponse listTerms(TermsRequest request) throws SearchException {
-        try {
-            Path indexPath = Paths.get(indexPathParameter);
-
-            // Build searcher
-            IndexSearcher searcher = IndexSearcherFactory.getInstance(indexPath, new HashSet<>(), false);
+        // Acquire searcher over all indexes (released when done)
+        try (LeasedSearcher leased = indexRegistry.acquire(new HashSet<>())) {
+            IndexSearcher searcher = leased.getSearcher();
 
             // Search a document that match the path
             Query query = new TermQuery(new Term(FieldNames.PATH, request.getPath()));
@@ -0,0 +1,187 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups {@link org.apache.lucene.index.IndexWriter} commits.
+ * <p/>
+ * Each commit fsyncs the index files, so committing after every document makes the ingest speed bound to the disk
+ * sync latency. Instead, changed writers are tracked and committed together when one of these limits is reached:
+ * <ul>
+ * <li>Time elapsed since the last commit</li>
+ * <li>Number of changed documents</li>
+ * <li>RAM used by the changed writers</li>
+ * </ul>
+ * Only the writers that changed since the last commit are committed. During bulk loads commits are only time bound,
+ * on a longer interval, since each commit flushes a segment.
+ * <p/>
+ * Commits hold this instance monitor, a change that must be committed alone can hold it too.
+ * <p/>
+ * Callbacks can be registered to run once the next commit is done ("durable ack"), so a caller only gets notified
+ * after its change is safe on disk.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class CommitCoordinator {
+
+    private static final Logger LOGGER = LogManager.getLogger(CommitCoordinator.class.getName());
+
+    // Writers changed since the last commit
+    private final Set<IndexWriter> changed = ConcurrentHashMap.newKeySet();
+
+    // Callbacks waiting for the next commit
+    private final Queue<Runnable> acks = new ConcurrentLinkedQueue<>();
+
+    // Documents changed since the last commit
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Commit once this number of documents has changed
+    @Value("${fulltext.commit.max-docs}")
+    private Integer maxDocs;
+
+    // Commit once the changed writers hold this amount of RAM
+    @Value("${fulltext.commit.max-ram-mb}")
+    private Integer maxRamMb;
+
+    // Queue entries are only acknowledged after the commit that covers them
+    @Value("${fulltext.commit.durable-ack}")
+    private Boolean durableAck;
+
+    // Minimal time between commits during bulk loads
+    @Value("${fulltext.commit.bulk-interval}")
+    private Long bulkInterval;
+
+    @Autowired
+    private IndexRegistry indexRegistry;
+
+    // Time of the last commit
+    private volatile long lastCommit = System.currentTimeMillis();
+
+    /**
+     * Register a document change.
+     *
+     * @param writer {@link org.apache.lucene.index.IndexWriter} that received the change
+     */
+    public void changed(final IndexWriter writer) {
+        changed.add(writer);
+        int docs = pending.incrementAndGet();
+        if (!indexRegistry.isBulkLoad() && (docs >= maxDocs || ramBytesUsed() >= maxRamMb * 1024L * 1024L)) {
+            commit();
+        }
+    }
+
+    /**
+     * Run a callback once the changes registered so far are committed.
+     * <p/>
+     * If durable ack is disabled the callback runs immediately.
+     *
+     * @param ack Callback
+     */
+    public void afterCommit(final Runnable ack) {
+        if (durableAck) {
+            acks.add(ack);
+        } else {
+            ack.run();
+        }
+    }
+
+    /**
+     * Time bound commit.
+     */
+    @Scheduled(fixedDelayString = "${fulltext.commit.interval}")
+    public void runTask() {
+        if (indexRegistry.isBulkLoad() && System.currentTimeMillis() - lastCommit < bulkInterval) {
+            return;
+        }
+        if (!changed.isEmpty() || !acks.isEmpty()) {
+            commit();
+        }
+    }
+
+    /**
+     * Nothing must be left behind on shutdown.
+     */
+    @PreDestroy
+    public void shutdown() {
+        commit();
+    }
+
+    /**
+     * Commit all changed writers and run the callbacks covered by the commit.
+     */
+    public synchronized void commit() {
+        // Callbacks must be collected before the writers, so any of them was registered after its change
+        List<Runnable> covered = new ArrayList<>();
+        Runnable ack;
+        while ((ack = acks.poll()) != null) {
+            covered.add(ack);
+        }
+
+        List<IndexWriter> writers = new ArrayList<>(changed);
+        changed.removeAll(writers);
+        pending.set(0);
+        lastCommit = System.currentTimeMillis();
+
+        boolean failed = false;
+        for (IndexWriter writer : writers) {
+            try {
+                writer.commit();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(e);
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+
+        if (failed) {
+            // Not safe, let the callbacks wait for the next try
+            acks.addAll(covered);
+            for (IndexWriter writer : writers) {
+                if (writer.isOpen()) {
+                    changed.add(writer);
+                }
+            }
+            return;
+        }
+
+        LOGGER.debug("Committed " + writers.size() + " writers, acknowledged " + covered.size() + " changes");
+        for (Runnable callback : covered) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LOGGER.error(e);
+            }
+        }
+    }
+
+    /**
+     * Compute the RAM used by the changed writers.
+     *
+     * @return Bytes
+     */
+    private long ramBytesUsed() {
+        long total = 0;
+        for (IndexWriter writer : changed) {
+            total += writer.ramBytesUsed();
+        }
+        return total;
+    }
+}
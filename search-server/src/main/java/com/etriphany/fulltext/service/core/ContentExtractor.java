@@ -1,17 +1,40 @@
 package com.etriphany.fulltext.service.core;
 
+import com.etriphany.fulltext.domain.util.Timing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParsingReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Content extraction.
+ * <p/>
+ * Building Tika loads the whole detector/parser configuration (service loader lookups included), so a single
+ * instance is built once and shared, both {@link org.apache.tika.detect.Detector} and
+ * {@link org.apache.tika.parser.AutoDetectParser} are thread safe. Streamed parsing runs on a pool of reusable
+ * threads instead of a new thread per content.
  *
  * @author cadu.goncalves
  *
@@ -21,7 +44,23 @@ public final class ContentExtractor {
     public static final String PLAIN_TEXT = MimeTypes.PLAIN_TEXT;
 
     // Defines number of characters used for content sampling
-    private static final int CONTENT_SAMPLING_CHARS = 7500;
+    public static final int CONTENT_SAMPLING_CHARS = 7500;
+
+    private static final Logger LOGGER = LogManager.getLogger(ContentExtractor.class.getName());
+
+    // Shared detector/parser facade
+    private static final Tika TIKA = new Tika();
+
+    // Threads that run streamed parsing
+    private static final ExecutorService PARSING_THREADS = Executors.newCachedThreadPool(new ParsingThreadFactory());
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Time spent to open a content stream (until the first characters are available)
+    private static final Timing OPEN_TIMING = new Timing();
+
+    // CPU time spent parsing a content
+    private static final Timing PARSE_TIMING = new Timing();
 
     /**
      * Private constructor
@@ -30,6 +69,21 @@ public final class ContentExtractor {
 
     }
 
+    /**
+     * Load parsers ahead of the first request.
+     */
+    public static void warmUp() {
+        long start = System.nanoTime();
+        try (Reader reader = openContent(new ByteArrayInputStream("warm up".getBytes(StandardCharsets.UTF_8)), new Metadata())) {
+            while (reader.read() != -1) {
+                // Consume all
+            }
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+        }
+        LOGGER.info("Content extractor ready in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
     /**
      * Detect file MIME Type.
      *
@@ -41,26 +95,26 @@ public final class ContentExtractor {
         if (Files.isDirectory(path)) {
             throw new IOException("Not a file " + path.toString());
         }
-        Tika tika = new Tika();
-        return tika.detect(path.toFile());
+        return TIKA.detect(path);
     }
 
     /**
-     * Extract file contents.
+     * Open file contents as a stream.
      *
-     * Uses Tika to support PDF, DOC, XLS, HXML, XML and many other formats
+     * Uses Tika to support PDF, DOC, XLS, HXML, XML and many other formats. Parsing happens while the contents
+     * are read, so memory usage does not depend on file size.
      *
-     * @param path {@link java.nio.file.Path}
-     * @return String with file contents
+     * @param path     {@link java.nio.file.Path}
+     * @param maxChars Maximal number of characters to read (0 means no limit)
+     * @return {@link ContentReader} that must be closed after use
      * @throws IOException in case of filesystem error
      */
-    public static String extractContent(Path path) throws IOException {
-        Tika tika = new Tika();
-        try (InputStream stream = Files.newInputStream(path)) {
-            return tika.parseToString(stream);
-        } catch (TikaException e) {
-            throw new IOException(e);
-        }
+    public static ContentReader openContent(Path path, long maxChars) throws IOException {
+        long start = System.nanoTime();
+        Metadata metadata = new Metadata();
+        Reader reader = openContent(TikaInputStream.get(path, metadata), metadata);
+        OPEN_TIMING.record(System.nanoTime() - start);
+        return new ContentReader(reader, maxChars);
     }
 
     /**
@@ -72,12 +126,69 @@ public final class ContentExtractor {
      * @return File sample
      */
     public static String extractSample(Path path) throws IOException {
-        Tika tika = new Tika();
         try (InputStream stream = Files.newInputStream(path)) {
-            return tika.parseToString(stream, new Metadata(), CONTENT_SAMPLING_CHARS);
+            return TIKA.parseToString(stream, new Metadata(), CONTENT_SAMPLING_CHARS);
         } catch (TikaException e) {
             throw new IOException(e);
         }
     }
 
+    /**
+     * Extraction metrics.
+     *
+     * @return {@link java.util.Map}
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("open", OPEN_TIMING.toMap());
+        stats.put("parseCpu", PARSE_TIMING.toMap());
+        return stats;
+    }
+
+    /**
+     * Start streamed parsing.
+     *
+     * @param stream   Raw contents (closed once parsed)
+     * @param metadata {@link org.apache.tika.metadata.Metadata}
+     * @return {@link java.io.Reader}
+     * @throws IOException in case of filesystem error
+     */
+    private static Reader openContent(InputStream stream, Metadata metadata) throws IOException {
+        Parser parser = TIKA.getParser();
+        ParseContext context = new ParseContext();
+        // Embedded contents
+        context.set(Parser.class, parser);
+        return new ParsingReader(parser, stream, metadata, context, ContentExtractor::parse);
+    }
+
+    /**
+     * Run the parsing task on the pool, accounting the CPU it takes.
+     *
+     * @param task Parsing task
+     */
+    private static void parse(final Runnable task) {
+        PARSING_THREADS.execute(() -> {
+            long start = THREADS.getCurrentThreadCpuTime();
+            try {
+                task.run();
+            } finally {
+                PARSE_TIMING.record(THREADS.getCurrentThreadCpuTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Daemon threads, parsing must never hold the application shutdown.
+     */
+    private static final class ParsingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "parser-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.etriphany.fulltext.service.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streams extracted contents keeping memory usage bounded, no matter how big the content is.
+ * <ul>
+ * <li>A small sample can be taken from the beginning (language detection), it is replayed to the next reads</li>
+ * <li>Content is truncated after a maximal number of characters</li>
+ * </ul>
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class ContentReader extends Reader {
+
+    // Extracted contents
+    private final Reader source;
+
+    // Maximal number of characters delivered (0 means no limit)
+    private final long maxChars;
+
+    // Sampled characters, replayed before the remaining source
+    private char[] head = new char[0];
+
+    private int headPosition;
+
+    // Characters delivered so far
+    private long delivered;
+
+    // Source had more characters than the maximal allowed
+    private boolean truncated;
+
+    /**
+     * Constructor.
+     *
+     * @param source   Extracted contents
+     * @param maxChars Maximal number of characters delivered (0 means no limit)
+     */
+    public ContentReader(Reader source, long maxChars) {
+        this.source = source;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Take a sample from the beginning of contents.
+     * <p/>
+     * Must be called before any read, sampled characters are delivered again by the next reads.
+     *
+     * @param size Sample size
+     * @return Contents sample
+     * @throws IOException in case of extraction error
+     */
+    public String sample(int size) throws IOException {
+        if (delivered > 0 || head.length > 0) {
+            throw new IllegalStateException("Sample must be taken before reading");
+        }
+        char[] buffer = new char[size];
+        int length = 0;
+        int read;
+        while (length < size && (read = source.read(buffer, length, size - length)) != -1) {
+            length += read;
+        }
+        head = length == size ? buffer : Arrays.copyOf(buffer, length);
+        return new String(head);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        // Limit reached?
+        if (maxChars > 0 && delivered >= maxChars) {
+            if (!truncated && (headPosition < head.length || source.read() != -1)) {
+                truncated = true;
+            }
+            return -1;
+        }
+        if (maxChars > 0) {
+            len = (int) Math.min(len, maxChars - delivered);
+        }
+
+        int read;
+        if (headPosition < head.length) {
+            // Replay sample
+            read = Math.min(len, head.length - headPosition);
+            System.arraycopy(head, headPosition, cbuf, off, read);
+            headPosition += read;
+        } else {
+            read = source.read(cbuf, off, len);
+            if (read == -1) {
+                return -1;
+            }
+        }
+        delivered += read;
+        return read;
+    }
+
+    /**
+     * Check if contents were truncated.
+     *
+     * @return True if the source had more characters than the maximal allowed
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Recover the number of characters delivered.
+     *
+     * @return Number of characters
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,275 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.IndexSearcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps searchers pinned by deep paging cursors.
+ * <p/>
+ * A cursor holds the searcher of its first page, so next pages run on the same point in time view (doc ids and
+ * scores line up) while indexing carries on. Cursors opened on the same point in time view share a single pinned
+ * searcher, whose readers stay open until its last cursor is idle for longer than its time to live, or is evicted
+ * to respect the maximal number of open cursors (least recently used first).
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class CursorRegistry {
+
+    private static final Logger LOGGER = LogManager.getLogger(CursorRegistry.class.getName());
+
+    // Idle time before a cursor is closed (milliseconds)
+    @Value("${fulltext.search.cursor.ttl}")
+    private Long ttlMs;
+
+    // Maximal number of open cursors
+    @Value("${fulltext.search.cursor.max}")
+    private Integer maxCursors;
+
+    // Open cursors by id, least recently used first
+    private final Map<String, Cursor> cursors = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Pinned searchers by point in time view, shared by the cursors opened on it
+    private final Map<String, Pin> pins = new HashMap<>();
+
+    /**
+     * Pin a searcher on a new cursor, acquired already (must be released after use).
+     *
+     * @param leased {@link LeasedSearcher}, owned by the registry from now on
+     * @param total  Total of matches of the cursor query
+     * @return {@link Cursor}
+     */
+    public Cursor open(LeasedSearcher leased, int total) {
+        return open(leased, total, null);
+    }
+
+    /**
+     * Pin a searcher on a new cursor, acquired already (must be released after use).
+     *
+     * @param leased {@link LeasedSearcher}, owned by the registry from now on (released at once when its point in
+     *               time view is pinned already)
+     * @param total  Total of matches of the cursor query
+     * @param scales Score scale of each language index of a multi-language query (null otherwise)
+     * @return {@link Cursor}
+     */
+    public Cursor open(LeasedSearcher leased, int total, float[] scales) {
+        String view = leased.getLanguages() + "@" + leased.getGeneration();
+        List<LeasedSearcher> released = new ArrayList<>();
+        Cursor cursor;
+        synchronized (this) {
+            Pin pin = pins.get(view);
+            if (pin == null) {
+                pin = new Pin(view, leased);
+                pins.put(view, pin);
+            } else {
+                // Same readers, keep a single lease
+                released.add(leased);
+            }
+            ++pin.cursors;
+            cursor = new Cursor(UUID.randomUUID().toString(), pin, total, scales);
+            cursor.users = 1;
+            cursors.put(cursor.id, cursor);
+            Iterator<Cursor> oldest = cursors.values().iterator();
+            while (cursors.size() > maxCursors && oldest.hasNext()) {
+                Cursor candidate = oldest.next();
+                if (candidate.users == 0) {
+                    oldest.remove();
+                    unpin(candidate, released);
+                }
+            }
+        }
+        close(released);
+        return cursor;
+    }
+
+    /**
+     * Acquire an open cursor, it must be released after use.
+     *
+     * @param id Cursor id
+     * @return {@link Cursor} or null if unknown or expired
+     */
+    public synchronized Cursor acquire(String id) {
+        Cursor cursor = cursors.get(id);
+        if (cursor == null || cursor.isExpired(System.currentTimeMillis(), ttlMs)) {
+            return null;
+        }
+        ++cursor.users;
+        cursor.lastUsed = System.currentTimeMillis();
+        return cursor;
+    }
+
+    /**
+     * Give back a cursor acquired before.
+     *
+     * @param cursor {@link Cursor}
+     */
+    public synchronized void release(Cursor cursor) {
+        --cursor.users;
+        cursor.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Count open cursors.
+     *
+     * @return Number of cursors
+     */
+    public synchronized int size() {
+        return cursors.size();
+    }
+
+    /**
+     * Count pinned searchers.
+     *
+     * @return Number of pinned searchers
+     */
+    public synchronized int pinned() {
+        return pins.size();
+    }
+
+    /**
+     * Task execution endpoint (close idle cursors).
+     */
+    @Scheduled(fixedDelayString = "${fulltext.search.cursor.prune}")
+    public void runTask() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        List<LeasedSearcher> released = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Cursor> all = cursors.values().iterator();
+            while (all.hasNext()) {
+                Cursor cursor = all.next();
+                if (cursor.users == 0 && cursor.isExpired(now, ttlMs)) {
+                    all.remove();
+                    unpin(cursor, released);
+                    ++expired;
+                }
+            }
+        }
+        if (expired > 0) {
+            LOGGER.debug("Closing " + expired + " idle cursors, releasing " + released.size() + " searchers");
+            close(released);
+        }
+    }
+
+    /**
+     * Release all pinned searchers.
+     */
+    @PreDestroy
+    public void close() {
+        List<LeasedSearcher> all = new ArrayList<>();
+        synchronized (this) {
+            for (Pin pin : pins.values()) {
+                all.add(pin.leased);
+            }
+            pins.clear();
+            cursors.clear();
+        }
+        close(all);
+    }
+
+    /**
+     * Drop a closed cursor from its pinned searcher (must hold the registry lock).
+     *
+     * @param cursor   Closed {@link Cursor}
+     * @param released Collects the searchers no longer pinned
+     */
+    private void unpin(Cursor cursor, List<LeasedSearcher> released) {
+        Pin pin = cursor.pin;
+        if (--pin.cursors == 0) {
+            pins.remove(pin.view);
+            released.add(pin.leased);
+        }
+    }
+
+    private static void close(List<LeasedSearcher> released) {
+        for (LeasedSearcher leased : released) {
+            leased.close();
+        }
+    }
+
+    /**
+     * Searcher pinned by the cursors opened on its point in time view.
+     */
+    private static final class Pin {
+
+        // Languages and generation of the pinned readers
+        private final String view;
+
+        private final LeasedSearcher leased;
+
+        // Number of open cursors
+        private int cursors;
+
+        private Pin(String view, LeasedSearcher leased) {
+            this.view = view;
+            this.leased = leased;
+        }
+    }
+
+    /**
+     * Deep paging cursor.
+     */
+    public static final class Cursor {
+
+        private final String id;
+
+        // Pinned searcher, shared with the cursors of the same point in time view
+        private final Pin pin;
+
+        // Total of matches, counted on the first page
+        private final int total;
+
+        // Score scale of each language index, computed on the first page
+        private final float[] scales;
+
+        // Number of pages being served
+        private int users;
+
+        private long lastUsed = System.currentTimeMillis();
+
+        private Cursor(String id, Pin pin, int total, float[] scales) {
+            this.id = id;
+            this.pin = pin;
+            this.total = total;
+            this.scales = scales;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public IndexSearcher getSearcher() {
+            return pin.leased.getSearcher();
+        }
+
+        public LeasedSearcher getLeased() {
+            return pin.leased;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public float[] getScales() {
+            return scales;
+        }
+
+        private boolean isExpired(long now, long ttlMs) {
+            return now - lastUsed > ttlMs;
+        }
+    }
+}
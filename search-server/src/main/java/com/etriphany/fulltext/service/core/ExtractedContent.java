@@ -0,0 +1,168 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Contents already extracted and waiting to be written on the index.
+ * <p/>
+ * Hands the extraction result over to another thread. Small contents are kept in memory, bigger ones are spooled
+ * to a temporary file so a full hand-off queue does not blow up the heap.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class ExtractedContent implements Closeable {
+
+    // Contents bigger than this number of characters are spooled
+    private static final int SPOOL_THRESHOLD = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final IndexRequest request;
+
+    private final Fingerprint fingerprint;
+
+    private String language;
+
+    // Contents kept in memory
+    private String text;
+
+    // Contents spooled to disk
+    private Path spool;
+
+    private boolean truncated;
+
+    private long delivered;
+
+    /**
+     * Constructor.
+     *
+     * @param request     Index request
+     * @param fingerprint Content {@link Fingerprint} (null when there is nothing to write)
+     */
+    public ExtractedContent(IndexRequest request, Fingerprint fingerprint) {
+        this.request = request;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Drain extracted contents.
+     *
+     * @param reader {@link ContentReader} (not closed)
+     * @throws IOException in case of extraction or filesystem error
+     */
+    public void drain(ContentReader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while (builder.length() < SPOOL_THRESHOLD && (read = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, read);
+        }
+
+        if (builder.length() < SPOOL_THRESHOLD) {
+            text = builder.toString();
+        } else {
+            spool = Files.createTempFile("fts-", ".txt");
+            try (Writer writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+                writer.append(builder);
+                while ((read = reader.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
+                }
+            }
+        }
+        truncated = reader.isTruncated();
+        delivered = reader.getDelivered();
+    }
+
+    /**
+     * Take over contents already spooled (e.g. by an extraction worker process).
+     *
+     * @param spool     Spool file (UTF-8), deleted on close
+     * @param truncated Content was truncated
+     * @param delivered Number of characters spooled
+     */
+    void spooled(Path spool, boolean truncated, long delivered) {
+        this.spool = spool;
+        this.truncated = truncated;
+        this.delivered = delivered;
+    }
+
+    /**
+     * Read a sample from the beginning of extracted contents.
+     *
+     * @param size Sample size
+     * @return Contents sample
+     * @throws IOException in case of filesystem error
+     */
+    public String sample(int size) throws IOException {
+        try (Reader reader = open()) {
+            char[] buffer = new char[size];
+            int length = 0;
+            int read;
+            while (length < size && (read = reader.read(buffer, length, size - length)) != -1) {
+                length += read;
+            }
+            return new String(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Open extracted contents.
+     *
+     * @return {@link java.io.Reader} that must be closed after use
+     * @throws IOException in case of filesystem error
+     */
+    public Reader open() throws IOException {
+        if (spool != null) {
+            return Files.newBufferedReader(spool, StandardCharsets.UTF_8);
+        }
+        return new StringReader(text == null ? "" : text);
+    }
+
+    public IndexRequest getRequest() {
+        return request;
+    }
+
+    public Fingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Release the spool file.
+     *
+     * @throws IOException in case of filesystem error
+     */
+    @Override
+    public void close() throws IOException {
+        text = null;
+        if (spool != null) {
+            Files.deleteIfExists(spool);
+            spool = null;
+        }
+    }
+}
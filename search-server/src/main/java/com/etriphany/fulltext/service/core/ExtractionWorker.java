@@ -0,0 +1,72 @@
+package com.etriphany.fulltext.service.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Extraction worker process entry point (see {@link ExtractionWorkers}).
+ * <p/>
+ * Reads one request per line from stdin, <code>maxChars TAB spool TAB path</code>, writes the extracted text on the
+ * spool file (UTF-8) and answers one line on stdout:
+ * <ul>
+ * <li><code>OK TAB truncated TAB delivered</code> on success</li>
+ * <li><code>ERR TAB message</code> on extraction error</li>
+ * </ul>
+ * The process exits when stdin is closed.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class ExtractionWorker {
+
+    static final String READY = "READY";
+
+    static final String OK = "OK";
+
+    static final String ERROR = "ERR";
+
+    static final String SEPARATOR = "\t";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Private constructor
+     */
+    private ExtractionWorker() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Stdout is reserved to the protocol, anything else (logging included) goes to stderr
+        PrintStream protocol = new PrintStream(System.out, true, StandardCharsets.UTF_8.name());
+        System.setOut(System.err);
+
+        ContentExtractor.warmUp();
+        protocol.println(READY);
+
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = input.readLine()) != null) {
+            String[] request = line.split(SEPARATOR, 3);
+            try (ContentReader reader = ContentExtractor.openContent(Paths.get(request[2]), Long.parseLong(request[0]));
+                 Writer writer = Files.newBufferedWriter(Paths.get(request[1]), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[BUFFER_SIZE];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
+                }
+                writer.flush();
+                protocol.println(OK + SEPARATOR + reader.isTruncated() + SEPARATOR + reader.getDelivered());
+            } catch (IOException | RuntimeException e) {
+                protocol.println(ERROR + SEPARATOR + String.valueOf(e.getMessage()).replaceAll("\\s+", " "));
+            }
+        }
+        System.exit(0);
+    }
+}
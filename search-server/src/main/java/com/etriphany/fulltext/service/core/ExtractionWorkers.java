@@ -0,0 +1,387 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.util.Timing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of extraction worker processes.
+ * <p/>
+ * A pathological content (e.g. a deeply nested archive) can spin or exhaust memory while parsed. Running Tika in
+ * child processes puts each content under a budget without putting the application at risk:
+ * <ul>
+ * <li>Memory: each worker runs with its own maximal heap and exits on OutOfMemoryError</li>
+ * <li>Time: a worker that does not answer in time is killed</li>
+ * <li>Workers are recycled after a number of contents, so leaks do not pile up</li>
+ * </ul>
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class ExtractionWorkers {
+
+    private static final Logger LOGGER = LogManager.getLogger(ExtractionWorkers.class.getName());
+
+    // Exit code of -XX:+ExitOnOutOfMemoryError
+    private static final int OUT_OF_MEMORY_EXIT = 3;
+
+    // Maximal time for a worker to start (JVM and parsers loading), independent of the extraction budget
+    private static final long STARTUP_TIMEOUT = 120000;
+
+    // Executable jar launcher able to run any main class (see loader.main)
+    private static final String BOOT_LAUNCHER = "org.springframework.boot.loader.PropertiesLauncher";
+
+    // Extract on worker processes instead of application threads
+    @Value("${fulltext.extract.isolated}")
+    private Boolean isolated;
+
+    // Maximal number of worker processes
+    @Value("${fulltext.extract.workers}")
+    private Integer size;
+
+    // Maximal time to extract a single content (ms)
+    @Value("${fulltext.extract.timeout}")
+    private Long timeout;
+
+    // Maximal heap of each worker process (MB)
+    @Value("${fulltext.extract.worker.heap-mb}")
+    private Integer heapMb;
+
+    // Number of contents extracted before a worker is recycled
+    @Value("${fulltext.extract.worker.max-docs}")
+    private Integer maxDocs;
+
+    // Idle workers
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+
+    // Workers alive (idle or busy)
+    private final AtomicInteger alive = new AtomicInteger();
+
+    // Threads waiting for worker answers
+    private final ExecutorService listeners = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "worker-listener");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong started = new AtomicLong();
+
+    private final AtomicLong recycled = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong crashes = new AtomicLong();
+
+    // Extraction wall time (worker startup excluded)
+    private final Timing timing = new Timing();
+
+    private volatile boolean closed;
+
+    /**
+     * Check if extraction runs on worker processes.
+     *
+     * @return True if isolated
+     */
+    public boolean isEnabled() {
+        return isolated;
+    }
+
+    /**
+     * Extract contents on a worker process.
+     *
+     * @param path      Content file
+     * @param maxChars  Maximal number of characters to extract (0 means no limit)
+     * @param extracted {@link ExtractedContent} that receives the spooled contents
+     * @throws IndexingException if the content goes over budget or cannot be extracted
+     */
+    public void extract(Path path, long maxChars, ExtractedContent extracted) throws IndexingException {
+        Path spool = null;
+        Worker worker;
+        try {
+            spool = Files.createTempFile("fts-", ".txt");
+            worker = borrow();
+        } catch (IOException | TimeoutException | ExecutionException e) {
+            // Not the content fault
+            deleteSpool(spool);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            deleteSpool(spool);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ie);
+        }
+
+        long start = System.nanoTime();
+        try {
+            String[] answer = worker.call(maxChars + ExtractionWorker.SEPARATOR + spool + ExtractionWorker.SEPARATOR + path);
+            if (ExtractionWorker.ERROR.equals(answer[0])) {
+                throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, answer.length > 1 ? answer[1] : null);
+            }
+            extracted.spooled(spool, Boolean.parseBoolean(answer[1]), Long.parseLong(answer[2]));
+            spool = null;
+        } catch (TimeoutException te) {
+            timeouts.incrementAndGet();
+            worker = discard(worker);
+            throw new IndexingException(IndexingException.ErrorType.EXTRACTION_TIMEOUT, "over " + timeout + " ms");
+        } catch (ExecutionException | IOException e) {
+            // Worker died
+            crashes.incrementAndGet();
+            int exit = worker.exitCode();
+            worker = discard(worker);
+            throw new IndexingException(IndexingException.ErrorType.EXTRACTION_CRASH,
+                    exit == OUT_OF_MEMORY_EXIT ? "over " + heapMb + " MB heap" : "worker exit code " + exit);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            worker = discard(worker);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ie);
+        } finally {
+            release(worker);
+            deleteSpool(spool);
+            timing.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Workers metrics.
+     *
+     * @return {@link java.util.Map}
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("alive", alive.get());
+        stats.put("started", started.get());
+        stats.put("recycled", recycled.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("crashes", crashes.get());
+        stats.put("extract", timing.toMap());
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.stop();
+        }
+        listeners.shutdownNow();
+    }
+
+    /**
+     * Take an idle worker, starting a new one if the pool is not full.
+     *
+     * @return {@link Worker}
+     * @throws IOException if the worker cannot start
+     * @throws InterruptedException if interrupted while waiting for a worker
+     * @throws TimeoutException if the worker does not start in time
+     * @throws ExecutionException if the worker dies while starting
+     */
+    private Worker borrow() throws IOException, InterruptedException, TimeoutException, ExecutionException {
+        Worker worker = idle.poll();
+        if (worker != null) {
+            return worker;
+        }
+        if (alive.incrementAndGet() <= size) {
+            try {
+                return start();
+            } catch (IOException | TimeoutException | ExecutionException | RuntimeException e) {
+                alive.decrementAndGet();
+                throw e;
+            }
+        }
+        alive.decrementAndGet();
+        return idle.take();
+    }
+
+    /**
+     * Give a worker back to the pool, recycling it if it did too much work.
+     *
+     * @param worker {@link Worker} (may be null)
+     */
+    private void release(Worker worker) {
+        if (worker == null) {
+            return;
+        }
+        if (closed || worker.done >= maxDocs) {
+            recycled.incrementAndGet();
+            worker.stop();
+            alive.decrementAndGet();
+        } else {
+            idle.offer(worker);
+        }
+    }
+
+    /**
+     * Kill a worker.
+     *
+     * @param worker {@link Worker} (may be null)
+     * @return Always null (worker is gone)
+     */
+    private Worker discard(Worker worker) {
+        if (worker != null) {
+            worker.kill();
+            alive.decrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Start a new worker process and wait for it to be ready.
+     *
+     * @return {@link Worker}
+     */
+    private Worker start() throws IOException, InterruptedException, TimeoutException, ExecutionException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heapMb + "m");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        if (ExtractionWorker.class.getClassLoader() == ClassLoader.getSystemClassLoader()) {
+            // Plain classpath (IDE, tests)
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ExtractionWorker.class.getName());
+        } else {
+            // Executable jar, classes are nested inside it
+            command.add("-Dloader.main=" + ExtractionWorker.class.getName());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path").split(File.pathSeparator)[0]);
+            command.add(BOOT_LAUNCHER);
+        }
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        Worker worker = new Worker(process);
+        try {
+            String ready = worker.read(STARTUP_TIMEOUT);
+            if (!ExtractionWorker.READY.equals(ready)) {
+                throw new IOException("Extraction worker did not start: " + ready);
+            }
+        } catch (IOException | TimeoutException | ExecutionException | InterruptedException e) {
+            worker.kill();
+            throw e;
+        }
+        started.incrementAndGet();
+        LOGGER.info("Extraction worker started, pid " + process.pid());
+        return worker;
+    }
+
+    /**
+     * Delete a spool file not handed over.
+     *
+     * @param spool Spool file (may be null)
+     */
+    private static void deleteSpool(Path spool) {
+        if (spool != null) {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+            }
+        }
+    }
+
+    /**
+     * Worker process handle.
+     */
+    private final class Worker {
+
+        private final Process process;
+
+        private final Writer input;
+
+        private final BufferedReader output;
+
+        // Number of contents extracted
+        private int done;
+
+        Worker(Process process) {
+            this.process = process;
+            this.input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Send a request and wait the answer.
+         *
+         * @param request Request line
+         * @return Answer fields
+         */
+        String[] call(String request) throws IOException, InterruptedException, TimeoutException, ExecutionException {
+            done++;
+            input.write(request);
+            input.write('\n');
+            input.flush();
+            return read(timeout).split(ExtractionWorker.SEPARATOR);
+        }
+
+        /**
+         * Read a line from the worker.
+         *
+         * @param millis Maximal time to wait
+         * @return Line
+         */
+        String read(long millis) throws IOException, InterruptedException, TimeoutException, ExecutionException {
+            Future<String> line = listeners.submit(output::readLine);
+            try {
+                String result = line.get(millis, TimeUnit.MILLISECONDS);
+                if (result == null) {
+                    throw new IOException("Extraction worker is gone");
+                }
+                return result;
+            } catch (TimeoutException | InterruptedException e) {
+                line.cancel(true);
+                throw e;
+            }
+        }
+
+        /**
+         * Exit code, waiting a little for the process to finish.
+         *
+         * @return Exit code or -1 if still running
+         */
+        int exitCode() {
+            try {
+                return process.waitFor(1, TimeUnit.SECONDS) ? process.exitValue() : -1;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+
+        /**
+         * Graceful stop (the worker exits once stdin is closed).
+         */
+        void stop() {
+            try {
+                input.close();
+            } catch (IOException ioe) {
+                process.destroyForcibly();
+            }
+        }
+
+        void kill() {
+            process.destroyForcibly();
+        }
+    }
+}
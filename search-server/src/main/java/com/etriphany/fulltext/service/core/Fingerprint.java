@@ -0,0 +1,147 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.util.FieldNames;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content fingerprint, used to detect unchanged contents without parsing them.
+ * <ul>
+ * <li>Size and modification time are a cheap pre-check</li>
+ * <li>Content hash is only computed when the pre-check is not conclusive (same size, touched), so changed
+ * contents are read once, by extraction</li>
+ * </ul>
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class Fingerprint {
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // File size in bytes
+    private final long size;
+
+    // File modification time in milliseconds
+    private final long modified;
+
+    // File content hash (hex)
+    private String hash;
+
+    /**
+     * Constructor.
+     *
+     * @param size     File size in bytes
+     * @param modified File modification time in milliseconds
+     * @param hash     File content hash (hex), may be null
+     */
+    public Fingerprint(long size, long modified, String hash) {
+        this.size = size;
+        this.modified = modified;
+        this.hash = hash;
+    }
+
+    /**
+     * Take the fingerprint of a file, the hash is left to be computed on demand.
+     *
+     * @param path {@link java.nio.file.Path}
+     * @return {@link Fingerprint}
+     * @throws IOException in case of filesystem error
+     */
+    public static Fingerprint of(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new Fingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(), null);
+    }
+
+    /**
+     * Recover the fingerprint stored on an indexed document.
+     *
+     * @param document {@link org.apache.lucene.document.Document}
+     * @return {@link Fingerprint} (hash may be unknown) or null if the document has no fingerprint
+     */
+    public static Fingerprint of(Document document) {
+        IndexableField size = document.getField(FieldNames.SIZE);
+        IndexableField modified = document.getField(FieldNames.MODIFIED);
+        IndexableField hash = document.getField(FieldNames.HASH);
+        if (size == null || modified == null) {
+            return null;
+        }
+        return new Fingerprint(size.numericValue().longValue(), modified.numericValue().longValue(),
+                hash == null ? null : hash.stringValue());
+    }
+
+    /**
+     * Check if the file (this fingerprint) did not change since the indexed fingerprint was taken.
+     *
+     * @param path    File this fingerprint was taken from
+     * @param indexed Fingerprint of the indexed content
+     * @return True if the contents are the same
+     * @throws IOException in case of filesystem error
+     */
+    public boolean matches(Path path, Fingerprint indexed) throws IOException {
+        if (indexed == null || size != indexed.size) {
+            return false;
+        }
+        if (modified == indexed.modified) {
+            // Cheap pre-check is enough
+            return true;
+        }
+        // Touched, compare contents (hash kept to be stored, even if the indexed one is unknown)
+        return hash(path).equals(indexed.hash);
+    }
+
+    /**
+     * Compute the content hash (streaming, constant memory).
+     *
+     * @param path File this fingerprint was taken from
+     * @return Hash (hex)
+     * @throws IOException in case of filesystem error
+     */
+    public String hash(Path path) throws IOException {
+        if (hash == null) {
+            try (InputStream stream = Files.newInputStream(path)) {
+                MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b));
+                }
+                hash = hex.toString();
+            } catch (NoSuchAlgorithmException nae) {
+                throw new IOException(nae);
+            }
+        }
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * Recover the content hash, if computed already.
+     *
+     * @return Hash (hex) or null
+     */
+    public String getHash() {
+        return hash;
+    }
+}
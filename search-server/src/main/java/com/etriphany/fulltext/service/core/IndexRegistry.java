@@ -0,0 +1,299 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.SearchException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class basically aims to create and keep multiple indexes, each one bound to a particular language.
+ * <p/>
+ * Keeping documents in different languages inside the same index is a bad practice, because the analysis performed
+ * in the index will not match all the requirements for all languages (tokenization, stopwords, stemming).
+ * <p/>
+ * Keeping each index bound to a specific language provides an optimal approach during analysis and index management.
+ * <p/>
+ * Each language index shares a single {@link org.apache.lucene.index.IndexWriter} and a single
+ * {@link org.apache.lucene.search.SearcherManager} among all threads. On near real time mode searchers are opened
+ * from the writers and refreshed in background, so changes become searchable without waiting for commits.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class IndexRegistry {
+
+    private static final Logger LOGGER = LogManager.getLogger(IndexRegistry.class.getName());
+
+    // Holds index instances bound to specific language.
+    private final ConcurrentMap<String, LanguageIndex> indexes = new ConcurrentHashMap<>();
+
+    // The index path must defined externally using parameter
+    @Value("${fulltext.index.path}")
+    private String indexPathParameter;
+
+    // Open searchers from the writers
+    @Value("${fulltext.search.nrt}")
+    private Boolean nearRealTime;
+
+    // Bulk load profile in use
+    @Value("${fulltext.writer.bulk-load}")
+    private volatile boolean bulkLoad;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ParallelSearcherFactory searcherFactory;
+
+    /**
+     * Recover thread safe index writer.
+     *
+     * @param language The language used to analyze index contents.
+     * @return {@link org.apache.lucene.index.IndexWriter}
+     * @throws IndexingException in case of indexing error
+     */
+    public IndexWriter getWriter(String language) throws IndexingException {
+        return getIndex(language).writer();
+    }
+
+    /**
+     * Acquire a searcher for a single language index.
+     *
+     * @param language The language used to analyze index contents.
+     * @return {@link LeasedSearcher} that must be closed after use
+     * @throws SearchException in case of search error
+     */
+    public LeasedSearcher acquire(String language) throws SearchException {
+        return acquire(Collections.singleton(language));
+    }
+
+    /**
+     * Acquire a searcher able to search on multiple language indexes at once.
+     *
+     * @param languages The languages used to analyze index contents, when empty all indexed languages are used.
+     * @return {@link LeasedSearcher} that must be closed after use
+     * @throws SearchException in case of search error
+     */
+    public LeasedSearcher acquire(Set<String> languages) throws SearchException {
+        if (languages.isEmpty()) {
+            // No languages on parameter, collect from filesystem
+            try {
+                languages = getIndexedLanguages();
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+                throw new SearchException(SearchException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+            }
+            if (languages.isEmpty()) {
+                throw new SearchException(SearchException.ErrorType.NO_IDEX);
+            }
+        }
+
+        // Same index may be reached by more than one language (fallback to unknown)
+        Set<LanguageIndex> targets = new LinkedHashSet<>();
+        for (String language : languages) {
+            targets.add(getIndex(language));
+        }
+
+        List<SearcherManager> managers = new ArrayList<>();
+        List<IndexSearcher> acquired = new ArrayList<>();
+        List<String> acquiredLanguages = new ArrayList<>();
+        List<Analyzer> analyzers = new ArrayList<>();
+        try {
+            for (LanguageIndex index : targets) {
+                SearcherManager manager = index.searcherManager();
+                if (!nearRealTime) {
+                    // Only committed changes are visible, pick them on demand
+                    manager.maybeRefresh();
+                }
+                acquired.add(manager.acquire());
+                managers.add(manager);
+                acquiredLanguages.add(index.getLanguage());
+                analyzers.add(index.getAnalyzer());
+            }
+
+            if (acquired.size() == 1) {
+                // Single index searcher
+                return new LeasedSearcher(acquired.get(0), managers, acquired, acquiredLanguages, analyzers);
+            }
+
+            // Multiple index searcher, readers are owned by the managers (referenced until the lease is closed)
+            IndexReader[] readers = new IndexReader[acquired.size()];
+            for (int i = 0; i < readers.length; ++i) {
+                readers[i] = acquired.get(i).getIndexReader();
+            }
+            MultiReader multiReader = new MultiReader(readers, false);
+            return new LeasedSearcher(searcherFactory.newSearcher(multiReader, null), managers, acquired,
+                    acquiredLanguages, analyzers);
+        } catch (IOException ioe) {
+            LeasedSearcher.release(managers, acquired);
+            LOGGER.error(ioe);
+            throw new SearchException(SearchException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } catch (SearchException | RuntimeException e) {
+            LeasedSearcher.release(managers, acquired);
+            throw e;
+        }
+    }
+
+    /**
+     * Recover the languages that already have an index on filesystem.
+     *
+     * @return {@link java.util.Set} of languages
+     * @throws IOException in case of filesystem error
+     */
+    public Set<String> getIndexedLanguages() throws IOException {
+        Path indexPath = Paths.get(indexPathParameter);
+        if (!Files.exists(indexPath)) {
+            return new HashSet<>();
+        }
+        try (Stream<Path> children = Files.list(indexPath)) {
+            return children.filter(Files::isDirectory)
+                    .map(dir -> dir.toFile().getName())
+                    .collect(Collectors.toCollection(HashSet::new));
+        }
+    }
+
+    /**
+     * Open a private writer, outside of the registry (offline builds).
+     * <p/>
+     * Uses the language analyzer and settings, on the bulk load profile.
+     *
+     * @param directory Index location
+     * @param language  The language used to analyze index contents.
+     * @return {@link org.apache.lucene.index.IndexWriter}, the writer and its directory must be closed after use
+     * @throws IOException in case of filesystem error
+     */
+    public IndexWriter openWriter(Path directory, String language) throws IOException {
+        final String key = resolve(language);
+        IndexWriterConfig config = new WriterSettings(environment, key).build(LanguageIndex.buildAnalyzer(key), true);
+        return new IndexWriter(FSDirectory.open(directory), config);
+    }
+
+    /**
+     * Replace all contents of a language index, in a single commit.
+     * <p/>
+     * Searchers see either the old or the new contents, never a mix. The caller must make sure no other commit
+     * happens meanwhile.
+     *
+     * @param language The language used to analyze index contents.
+     * @param sources  Locations of indexes built with {@link #openWriter(Path, String)} (closed)
+     * @throws IndexingException in case of indexing error
+     */
+    public void replace(String language, List<Path> sources) throws IndexingException {
+        getIndex(language).replace(sources);
+    }
+
+    /**
+     * Map a language to the name of the index that holds its contents.
+     *
+     * @param language The language used to analyze index contents.
+     * @return Index name
+     */
+    public String getIndexName(String language) {
+        return resolve(language);
+    }
+
+    /**
+     * Switch writers between the steady state and the bulk load profiles.
+     * <p/>
+     * Ending a bulk load starts the merges deferred meanwhile.
+     *
+     * @param enabled Bulk load profile
+     */
+    public synchronized void setBulkLoad(boolean enabled) {
+        if (bulkLoad != enabled) {
+            bulkLoad = enabled;
+            LOGGER.info("Bulk load " + (enabled ? "started" : "finished"));
+            for (LanguageIndex index : indexes.values()) {
+                index.applyProfile();
+            }
+        }
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * Near real time refresh, keeps the lag between indexing and search visibility bounded.
+     * <p/>
+     * Skipped during bulk loads, each refresh would flush a tiny segment.
+     */
+    @Scheduled(fixedDelayString = "${fulltext.search.nrt.refresh}")
+    public void runTask() {
+        if (nearRealTime && !bulkLoad) {
+            for (LanguageIndex index : indexes.values()) {
+                index.maybeRefresh();
+            }
+        }
+    }
+
+    /**
+     * Release all indexes (writers commit on close).
+     */
+    @PreDestroy
+    public void close() {
+        for (LanguageIndex index : indexes.values()) {
+            try {
+                index.close();
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+            }
+        }
+        indexes.clear();
+    }
+
+    /**
+     * Recover the index bound to a language.
+     *
+     * @param language The language used to analyze index contents.
+     * @return {@link LanguageIndex}
+     */
+    private LanguageIndex getIndex(String language) {
+        /*
+          FSDirectory internally picks the best directory implementation based on current OS
+          We just have to shift to the correct index based on the language
+         */
+        final String key = resolve(language);
+        return indexes.computeIfAbsent(key, k -> new LanguageIndex(Paths.get(indexPathParameter, k), k, nearRealTime,
+                new WriterSettings(environment, k), this::isBulkLoad, searcherFactory));
+    }
+
+    /**
+     * Map a language to its index name.
+     *
+     * @param language The language used to analyze index contents.
+     * @return Index name
+     */
+    private static String resolve(String language) {
+        language = language.toLowerCase();
+        if (!AnalyzerFactory.getKnownLanguages().contains(language)) {
+            language = LanguageExtractor.UNKNOWN_LANGUAGE;
+        }
+        return language;
+    }
+}
@@ -0,0 +1,312 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.IndexingException;
+import com.etriphany.fulltext.domain.SearchException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Holds the {@link org.apache.lucene.index.IndexWriter} and the {@link org.apache.lucene.search.SearcherManager}
+ * of an index bound to a particular language.
+ * <p/>
+ * On near real time mode the searchers are opened from the writer, so uncommitted changes become visible after
+ * a refresh. Otherwise they are opened from the directory and only see committed changes.
+ *
+ * @author cadu.goncalves
+ *
+ */
+final class LanguageIndex implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(LanguageIndex.class.getName());
+
+    // Index language
+    private final String language;
+
+    // Index location
+    private final Path path;
+
+    // Open searchers from the writer
+    private final boolean nearRealTime;
+
+    // Writer tuning
+    private final WriterSettings settings;
+
+    // Bulk load profile in use
+    private final BooleanSupplier bulkLoad;
+
+    // Builds the searchers of the manager
+    private final SearcherFactory searcherFactory;
+
+    // Analyzer of the index language, shared by the writer and the query parsing (thread safe)
+    private final Analyzer analyzer;
+
+    private Directory directory;
+
+    private IndexWriter writer;
+
+    private SearcherManager searcherManager;
+
+    // Held while the index contents are replaced, searchers must not be refreshed meanwhile
+    private final ReentrantLock swapLock = new ReentrantLock();
+
+    /**
+     * Constructor.
+     *
+     * @param path            Index location
+     * @param language        Index language
+     * @param nearRealTime    Open searchers from the writer
+     * @param settings        Writer tuning
+     * @param bulkLoad        Bulk load profile in use
+     * @param searcherFactory Builds the searchers of the manager
+     */
+    LanguageIndex(Path path, String language, boolean nearRealTime, WriterSettings settings, BooleanSupplier bulkLoad,
+                  SearcherFactory searcherFactory) {
+        this.path = path;
+        this.language = language;
+        this.nearRealTime = nearRealTime;
+        this.settings = settings;
+        this.bulkLoad = bulkLoad;
+        this.searcherFactory = searcherFactory;
+        this.analyzer = buildAnalyzer(language);
+    }
+
+    /**
+     * Recover thread safe index writer.
+     *
+     * @return {@link org.apache.lucene.index.IndexWriter}
+     * @throws IndexingException in case of indexing error
+     */
+    synchronized IndexWriter writer() throws IndexingException {
+        if (writer == null || !writer.isOpen()) {
+            try {
+                writer = buildWriter();
+                if (nearRealTime && searcherManager != null) {
+                    // Bound to a dead writer
+                    searcherManager.close();
+                    searcherManager = null;
+                }
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+                throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Recover thread safe searcher manager.
+     *
+     * @return {@link org.apache.lucene.search.SearcherManager}
+     * @throws SearchException in case of search error
+     */
+    synchronized SearcherManager searcherManager() throws SearchException {
+        if (nearRealTime && (writer == null || !writer.isOpen())) {
+            // Searchers must be opened from a live writer
+            if (!Files.exists(path)) {
+                throw new SearchException(SearchException.ErrorType.NO_IDEX);
+            }
+            try {
+                writer();
+            } catch (IndexingException ie) {
+                throw new SearchException(SearchException.ErrorType.INPUT_OUTPUT_FAILURE, ie);
+            }
+        }
+        if (searcherManager == null) {
+            if (!Files.exists(path)) {
+                throw new SearchException(SearchException.ErrorType.NO_IDEX);
+            }
+            try {
+                if (nearRealTime) {
+                    searcherManager = new SearcherManager(writer, searcherFactory);
+                } else {
+                    searcherManager = new SearcherManager(directory(), searcherFactory);
+                }
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+                throw new SearchException(SearchException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+            }
+        }
+        return searcherManager;
+    }
+
+    /**
+     * Refresh searchers if the index changed, without blocking.
+     */
+    void maybeRefresh() {
+        if (!swapLock.tryLock()) {
+            // Half replaced
+            return;
+        }
+        try {
+            SearcherManager manager;
+            synchronized (this) {
+                manager = searcherManager;
+            }
+            if (manager != null) {
+                manager.maybeRefresh();
+            }
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    /**
+     * Replace all index contents by the contents of other indexes, in a single commit.
+     * <p/>
+     * The caller must make sure no other commit happens meanwhile.
+     *
+     * @param sources Source index locations (not open by any writer)
+     * @throws IndexingException in case of indexing error
+     */
+    void replace(List<Path> sources) throws IndexingException {
+        swapLock.lock();
+        try {
+            IndexWriter current = writer();
+            List<Directory> directories = new ArrayList<>();
+            try {
+                for (Path source : sources) {
+                    directories.add(FSDirectory.open(source));
+                }
+                current.deleteAll();
+                current.addIndexes(directories.toArray(new Directory[0]));
+                current.commit();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(e);
+                // Nothing reaches the disk or the searchers
+                rollback(current);
+                throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, e);
+            } finally {
+                for (Directory directory : directories) {
+                    directory.close();
+                }
+            }
+
+            // New contents become visible at once
+            SearcherManager manager;
+            synchronized (this) {
+                manager = searcherManager;
+            }
+            if (manager != null) {
+                manager.maybeRefreshBlocking();
+            }
+            current.maybeMerge();
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+            throw new IndexingException(IndexingException.ErrorType.INPUT_OUTPUT_FAILURE, ioe);
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    /**
+     * Switch the open writer to the current profile, merges deferred by a bulk load start in background.
+     */
+    synchronized void applyProfile() {
+        if (writer != null && writer.isOpen()) {
+            boolean bulk = bulkLoad.getAsBoolean();
+            settings.apply(writer.getConfig(), bulk);
+            if (!bulk) {
+                try {
+                    writer.maybeMerge();
+                } catch (IOException ioe) {
+                    LOGGER.error(ioe);
+                }
+            }
+        }
+    }
+
+    String getLanguage() {
+        return language;
+    }
+
+    Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (searcherManager != null) {
+            searcherManager.close();
+            searcherManager = null;
+        }
+        if (writer != null && writer.isOpen()) {
+            writer.close();
+        }
+        writer = null;
+        if (directory != null) {
+            directory.close();
+            directory = null;
+        }
+    }
+
+    /**
+     * Recover the proper analyzer of a language.
+     *
+     * @param language Index language
+     * @return {@link org.apache.lucene.analysis.Analyzer}
+     */
+    static Analyzer buildAnalyzer(String language) {
+        if (!LanguageExtractor.UNKNOWN_LANGUAGE.equals(language)) {
+            return AnalyzerFactory.getInstance(language);
+        }
+        return new StandardAnalyzer();
+    }
+
+    /**
+     * Discard uncommitted changes, the writer is reopened on next use.
+     *
+     * @param current {@link org.apache.lucene.index.IndexWriter}
+     */
+    private synchronized void rollback(IndexWriter current) {
+        try {
+            current.rollback();
+        } catch (IOException ioe) {
+            LOGGER.error(ioe);
+        }
+    }
+
+    /**
+     * Constructs thread safe index writer.
+     *
+     * @return {@link org.apache.lucene.index.IndexWriter}
+     * @throws IOException in case of filesystem error
+     */
+    private IndexWriter buildWriter() throws IOException {
+        // Index configurations
+        IndexWriterConfig iwc = settings.build(analyzer, bulkLoad.getAsBoolean());
+
+        return new IndexWriter(directory(), iwc);
+    }
+
+    /**
+     * FSDirectory internally picks the best directory implementation based on current OS.
+     *
+     * @return {@link org.apache.lucene.store.Directory}
+     * @throws IOException in case of filesystem error
+     */
+    private Directory directory() throws IOException {
+        if (directory == null) {
+            directory = FSDirectory.open(path);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,143 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An {@link org.apache.lucene.search.IndexSearcher} acquired from one or more
+ * {@link org.apache.lucene.search.SearcherManager}.
+ * <p/>
+ * The underlying readers are kept open until the lease is closed, so it must always be closed after use.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class LeasedSearcher implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(LeasedSearcher.class.getName());
+
+    // Searcher over the acquired readers
+    private final IndexSearcher searcher;
+
+    // Managers the searchers were acquired from
+    private final List<SearcherManager> managers;
+
+    // Acquired searchers (same order as managers)
+    private final List<IndexSearcher> acquired;
+
+    // Language of each acquired searcher
+    private final List<String> languages;
+
+    // Analyzer of each acquired searcher, owned by its index
+    private final List<Analyzer> analyzers;
+
+    /**
+     * Constructor.
+     *
+     * @param searcher  Searcher over the acquired readers
+     * @param managers  Managers the searchers were acquired from
+     * @param acquired  Acquired searchers
+     * @param languages Language of each acquired searcher
+     * @param analyzers Analyzer of each acquired searcher
+     */
+    LeasedSearcher(IndexSearcher searcher, List<SearcherManager> managers, List<IndexSearcher> acquired,
+                   List<String> languages, List<Analyzer> analyzers) {
+        this.searcher = searcher;
+        this.managers = managers;
+        this.acquired = acquired;
+        this.languages = languages;
+        this.analyzers = analyzers;
+    }
+
+    public IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    /**
+     * Recover the languages of the acquired indexes, in the same order their documents are numbered by the searcher.
+     *
+     * @return {@link java.util.List} of languages
+     */
+    public List<String> getLanguages() {
+        return languages;
+    }
+
+    /**
+     * Recover the reader of an acquired index.
+     *
+     * @param index Position on {@link #getLanguages()}
+     * @return {@link org.apache.lucene.index.IndexReader}
+     */
+    public IndexReader getReader(int index) {
+        return acquired.get(index).getIndexReader();
+    }
+
+    /**
+     * Recover the analyzer the contents of an acquired index were indexed with.
+     *
+     * @param index Position on {@link #getLanguages()}
+     * @return {@link org.apache.lucene.analysis.Analyzer}
+     */
+    public Analyzer getAnalyzer(int index) {
+        return analyzers.get(index);
+    }
+
+    /**
+     * Identify the point in time view of the acquired readers, it changes whenever a refresh picks changes.
+     *
+     * @return Generation
+     */
+    public String getGeneration() {
+        StringBuilder generation = new StringBuilder();
+        for (IndexSearcher searcher : acquired) {
+            IndexReader reader = searcher.getIndexReader();
+            if (generation.length() > 0) {
+                generation.append(',');
+            }
+            if (reader instanceof DirectoryReader) {
+                generation.append(((DirectoryReader) reader).getVersion());
+            } else {
+                generation.append(System.identityHashCode(reader));
+            }
+        }
+        return generation.toString();
+    }
+
+    @Override
+    public void close() {
+        if (searcher != null && !acquired.contains(searcher)) {
+            // Searcher spanning many indexes, its reader holds a reference to each acquired one
+            try {
+                searcher.getIndexReader().close();
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+            }
+        }
+        release(managers, acquired);
+    }
+
+    /**
+     * Give back acquired searchers.
+     *
+     * @param managers  Managers the searchers were acquired from
+     * @param acquired Acquired searchers
+     */
+    static void release(List<SearcherManager> managers, List<IndexSearcher> acquired) {
+        for (int i = 0; i < acquired.size(); ++i) {
+            try {
+                managers.get(i).release(acquired.get(i));
+            } catch (IOException ioe) {
+                LOGGER.error(ioe);
+            }
+        }
+    }
+}
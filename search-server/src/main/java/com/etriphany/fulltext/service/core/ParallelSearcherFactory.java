@@ -0,0 +1,195 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds searchers that search segments (of one or many language indexes) in parallel.
+ * <p/>
+ * Segments are grouped into a bounded number of slices per query, each slice is searched on a shared pool and the
+ * top hits of all slices are merged. When the pool is busy the searching thread runs slices itself, so concurrent
+ * requests are never starved by a single big query.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class ParallelSearcherFactory extends SearcherFactory {
+
+    private static final Logger LOGGER = LogManager.getLogger(ParallelSearcherFactory.class.getName());
+
+    // Threads shared by all searches (zero searches on the calling thread only)
+    @Value("${fulltext.search.threads}")
+    private Integer threads;
+
+    // Maximal number of slices searched at once by a single query
+    @Value("${fulltext.search.parallelism}")
+    private Integer parallelism;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        if (threads > 0 && parallelism > 1) {
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * parallelism),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "search-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            LOGGER.info("Parallel search on " + threads + " threads, up to " + parallelism + " slices per query");
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Build a searcher.
+     *
+     * @param reader         {@link org.apache.lucene.index.IndexReader}
+     * @param previousReader Reader of the previous searcher (unused)
+     * @return {@link org.apache.lucene.search.IndexSearcher}
+     */
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        if (executor == null) {
+            return new IndexSearcher(reader);
+        }
+        // Slices are computed by the super constructor, captured values are set before it runs (fields are not)
+        final int maxSlices = parallelism;
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                List<LeafReaderContext[]> groups = split(leaves, maxSlices);
+                LeafSlice[] slices = new LeafSlice[groups.size()];
+                for (int i = 0; i < slices.length; ++i) {
+                    slices[i] = new LeafSlice(groups.get(i));
+                }
+                return slices;
+            }
+        };
+    }
+
+    /**
+     * Run independent searches on the shared pool, the calling thread runs the first one.
+     * <p/>
+     * Searches must not wait on the pool themselves (as searchers built by this factory do), otherwise they could
+     * end up waiting on each other.
+     *
+     * @param tasks Searches
+     * @param <T>   Search result type
+     * @return Results, in the same order of the tasks
+     * @throws IOException in case of filesystem error
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = new ArrayList<>();
+        if (executor != null) {
+            for (Callable<T> task : tasks.subList(1, tasks.size())) {
+                futures.add(executor.submit(task));
+            }
+        }
+
+        List<T> results = new ArrayList<>();
+        Exception failure = null;
+        try {
+            results.add(tasks.get(0).call());
+            if (executor == null) {
+                for (Callable<T> task : tasks.subList(1, tasks.size())) {
+                    results.add(task.call());
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+        // Wait for all, the readers must outlive the searches
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            } catch (ExecutionException ee) {
+                if (failure == null && ee.getCause() instanceof Exception) {
+                    failure = (Exception) ee.getCause();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+        return results;
+    }
+
+    /**
+     * Group segments into slices of about the same number of documents.
+     * <p/>
+     * Slices keep the segments order, so hits with the same score are merged in document order (as deep paging
+     * expects).
+     *
+     * @param leaves    Segments in document order
+     * @param maxSlices Maximal number of slices
+     * @return Segments of each slice
+     */
+    static List<LeafReaderContext[]> split(List<LeafReaderContext> leaves, int maxSlices) {
+        long total = 0;
+        for (LeafReaderContext leaf : leaves) {
+            total += leaf.reader().maxDoc();
+        }
+        int count = Math.max(1, Math.min(maxSlices, leaves.size()));
+        long target = (total + count - 1) / count;
+
+        List<LeafReaderContext[]> slices = new ArrayList<>();
+        List<LeafReaderContext> current = new ArrayList<>();
+        long docs = 0;
+        for (int i = 0; i < leaves.size(); ++i) {
+            LeafReaderContext leaf = leaves.get(i);
+            current.add(leaf);
+            docs += leaf.reader().maxDoc();
+            // Close the slice once full, unless remaining segments are needed to fill the remaining slices
+            boolean last = i == leaves.size() - 1;
+            if (last || (docs >= target && slices.size() < count - 1)) {
+                slices.add(current.toArray(new LeafReaderContext[0]));
+                current.clear();
+                docs = 0;
+            }
+        }
+        return slices;
+    }
+}
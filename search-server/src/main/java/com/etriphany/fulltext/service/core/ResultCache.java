@@ -0,0 +1,100 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.io.SearchResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of search responses.
+ * <p/>
+ * Each response is stored with the generation of the searcher that produced it (see
+ * {@link LeasedSearcher#getGeneration()}) and only served to requests on the same generation, so results are never
+ * older than the last refresh.
+ *
+ * @author cadu.goncalves
+ *
+ */
+@Component
+public class ResultCache {
+
+    // Maximal number of cached responses (zero disables the cache)
+    @Value("${fulltext.search.cache.size}")
+    private Integer maxEntries;
+
+    // Responses by request key, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Recover a cached response.
+     *
+     * @param key        Request key
+     * @param generation Generation of the searcher in use
+     * @return {@link SearchResponse} or null if missing or stale
+     */
+    public synchronized SearchResponse get(String key, String generation) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.generation.equals(generation)) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.response;
+    }
+
+    /**
+     * Cache a response, replacing any stale one.
+     *
+     * @param key        Request key
+     * @param generation Generation of the searcher that produced the response
+     * @param response   {@link SearchResponse}
+     */
+    public synchronized void put(String key, String generation, SearchResponse response) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        entries.put(key, new Entry(generation, response));
+        while (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+            ++evictions;
+        }
+    }
+
+    /**
+     * Snapshot for reporting.
+     *
+     * @return {@link java.util.Map}
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("hitRatio", hits + misses == 0 ? 0 : hits / (double) (hits + misses));
+        return stats;
+    }
+
+    private static final class Entry {
+
+        private final String generation;
+
+        private final SearchResponse response;
+
+        private Entry(String generation, SearchResponse response) {
+            this.generation = generation;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the top matches of a language index that is part of a multi-language search.
+ * <p/>
+ * Scores are multiplied by the scale of the language and documents are numbered as in the searcher spanning all
+ * languages, so pages of different languages can be merged (and deep paged) as a single one.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public final class ScaledScoreCollector extends SimpleCollector {
+
+    // Best matches first: higher score, lower document on ties
+    public static final Comparator<ScoreDoc> BEST_FIRST = (a, b) -> {
+        int compare = Float.compare(b.score, a.score);
+        return compare != 0 ? compare : Integer.compare(a.doc, b.doc);
+    };
+
+    // Number of matches to keep
+    private final int numHits;
+
+    // First document of the language index in the searcher spanning all languages
+    private final int base;
+
+    // Multiplies the raw scores
+    private final float scale;
+
+    // Last match of the previous page (null on first page)
+    private final ScoreDoc after;
+
+    // Worst kept match on top
+    private final PriorityQueue<ScoreDoc> queue;
+
+    private Scorer scorer;
+
+    private int docBase;
+
+    private int totalHits;
+
+    /**
+     * Constructor.
+     *
+     * @param numHits Number of matches to keep
+     * @param base    First document of the language index in the searcher spanning all languages
+     * @param scale   Multiplies the raw scores
+     * @param after   Last match of the previous page, scaled and numbered as the collected ones (null on first page)
+     */
+    public ScaledScoreCollector(int numHits, int base, float scale, ScoreDoc after) {
+        this.numHits = numHits;
+        this.base = base;
+        this.scale = scale;
+        this.after = after;
+        this.queue = new PriorityQueue<>(numHits, BEST_FIRST.reversed());
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        docBase = base + context.docBase;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        ++totalHits;
+        float score = scorer.score() * scale;
+        doc += docBase;
+        if (after != null && (score > after.score || (score == after.score && doc <= after.doc))) {
+            // Served by previous pages
+            return;
+        }
+        if (queue.size() < numHits) {
+            queue.add(new ScoreDoc(doc, score));
+        } else if (BEST_FIRST.compare(new ScoreDoc(doc, score), queue.peek()) < 0) {
+            queue.poll();
+            queue.add(new ScoreDoc(doc, score));
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return true;
+    }
+
+    /**
+     * Recover the collected matches, best first.
+     *
+     * @return {@link org.apache.lucene.search.TopDocs}
+     */
+    public TopDocs topDocs() {
+        ScoreDoc[] scoreDocs = new ScoreDoc[queue.size()];
+        for (int i = scoreDocs.length - 1; i >= 0; --i) {
+            scoreDocs[i] = queue.poll();
+        }
+        return new TopDocs(totalHits, scoreDocs, scoreDocs.length > 0 ? scoreDocs[0].score : Float.NaN);
+    }
+}
@@ -0,0 +1,136 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.springframework.core.env.Environment;
+
+/**
+ * {@link org.apache.lucene.index.IndexWriter} settings of a language index.
+ * <p/>
+ * Each setting is looked up as <code>fulltext.writer.&lt;language&gt;.&lt;name&gt;</code> first, then as
+ * <code>fulltext.writer.&lt;name&gt;</code>, so languages can be tuned apart from the shared defaults.
+ * <p/>
+ * The bulk load profile (initial loads) trades search freshness for ingest speed: bigger RAM buffer, no compound
+ * files and no merges at all, merges run once the bulk load ends.
+ *
+ * @author cadu.goncalves
+ *
+ */
+final class WriterSettings {
+
+    private static final String PREFIX = "fulltext.writer.";
+
+    // Merge threads of ConcurrentMergeScheduler (-1 means auto detect)
+    private static final int AUTO = ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS;
+
+    private final double ramBufferMb;
+
+    private final boolean compoundFile;
+
+    private final String codec;
+
+    private final double segmentsPerTier;
+
+    private final int maxMergeAtOnce;
+
+    private final double maxSegmentMb;
+
+    private final double floorSegmentMb;
+
+    private final int mergeThreads;
+
+    private final int maxMerges;
+
+    private final double bulkRamBufferMb;
+
+    /**
+     * Constructor.
+     *
+     * @param environment {@link org.springframework.core.env.Environment}
+     * @param language    Index language
+     */
+    WriterSettings(Environment environment, String language) {
+        ramBufferMb = get(environment, language, "ram-buffer-mb", Double.class, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+        compoundFile = get(environment, language, "compound-file", Boolean.class, IndexWriterConfig.DEFAULT_USE_COMPOUND_FILE_SYSTEM);
+        codec = get(environment, language, "codec", String.class, Codec.getDefault().getName());
+        segmentsPerTier = get(environment, language, "merge.segments-per-tier", Double.class, 10d);
+        maxMergeAtOnce = get(environment, language, "merge.max-merge-at-once", Integer.class, 10);
+        maxSegmentMb = get(environment, language, "merge.max-segment-mb", Double.class, 5 * 1024d);
+        floorSegmentMb = get(environment, language, "merge.floor-segment-mb", Double.class, 2d);
+        mergeThreads = get(environment, language, "merge.threads", Integer.class, AUTO);
+        maxMerges = get(environment, language, "merge.max-merges", Integer.class, AUTO);
+        bulkRamBufferMb = get(environment, language, "bulk.ram-buffer-mb", Double.class, 512d);
+    }
+
+    /**
+     * Build the configuration of a new writer.
+     *
+     * @param analyzer {@link org.apache.lucene.analysis.Analyzer}
+     * @param bulk     Bulk load profile
+     * @return {@link org.apache.lucene.index.IndexWriterConfig}
+     */
+    IndexWriterConfig build(Analyzer analyzer, boolean bulk) {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        config.setCodec(Codec.forName(codec));
+
+        ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+        if (mergeThreads != AUTO) {
+            // Lucene rule of thumb: a few more merges than threads may be queued
+            scheduler.setMaxMergesAndThreads(maxMerges != AUTO ? maxMerges : mergeThreads + 5, mergeThreads);
+        }
+        config.setMergeScheduler(scheduler);
+
+        apply(config, bulk);
+        return config;
+    }
+
+    /**
+     * Apply the settings that can be changed on a live writer.
+     *
+     * @param config {@link org.apache.lucene.index.LiveIndexWriterConfig}
+     * @param bulk   Bulk load profile
+     */
+    void apply(LiveIndexWriterConfig config, boolean bulk) {
+        if (bulk) {
+            config.setRAMBufferSizeMB(bulkRamBufferMb);
+            config.setUseCompoundFile(false);
+            config.setMergePolicy(NoMergePolicy.INSTANCE);
+        } else {
+            config.setRAMBufferSizeMB(ramBufferMb);
+            config.setUseCompoundFile(compoundFile);
+            config.setMergePolicy(buildMergePolicy());
+        }
+    }
+
+    /**
+     * Build the steady state merge policy.
+     *
+     * @return {@link org.apache.lucene.index.TieredMergePolicy}
+     */
+    private TieredMergePolicy buildMergePolicy() {
+        TieredMergePolicy policy = new TieredMergePolicy();
+        policy.setSegmentsPerTier(segmentsPerTier);
+        policy.setMaxMergeAtOnce(maxMergeAtOnce);
+        policy.setMaxMergedSegmentMB(maxSegmentMb);
+        policy.setFloorSegmentMB(floorSegmentMb);
+        if (!compoundFile) {
+            // Merged segments must not be packed either
+            policy.setNoCFSRatio(0);
+        }
+        return policy;
+    }
+
+    /**
+     * Lookup a setting, language specific first.
+     */
+    private static <T> T get(Environment environment, String language, String name, Class<T> type, T defaultValue) {
+        T shared = environment.getProperty(PREFIX + name, type, defaultValue);
+        return environment.getProperty(PREFIX + language + "." + name, type, shared);
+    }
+}
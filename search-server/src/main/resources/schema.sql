@@ -2,10 +2,31 @@
 
 -- index queue
 CREATE TABLE index_queue (
+  -- queue sequence (row identity, a request queued while an equal one is in flight is kept apart)
+  seq BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
   id VARCHAR(255),
   path VARCHAR(255),
   status VARCHAR(20) DEFAULT 'QUEUED',
   operation VARCHAR(20),
-  queued_at TIMESTAMP  DEFAULT CURRENT_TIMESTAMP
+  queued_at TIMESTAMP  DEFAULT CURRENT_TIMESTAMP,
+  -- priority lanes (each lane keeps its own queue order)
+  priority VARCHAR(20) DEFAULT 'BULK',
+  -- failure reason (requests over the extraction budget or out of attempts)
+  reason VARCHAR(255),
+  -- leases (locked requests go back to the queue once expired)
+  lease_owner VARCHAR(255),
+  lease_until TIMESTAMP,
+  -- claims of each request (given up after fulltext.queue.max-attempts)
+  attempts INT DEFAULT 0 NOT NULL
+);
+CREATE INDEX idx_index_queue_lease ON index_queue (lease_owner);
+-- queue order, ties broken by key (keyset paging)
+CREATE INDEX idx_index_queue_order ON index_queue (status, queued_at, id, path);
+CREATE INDEX idx_index_queue_path ON index_queue (path);
+CREATE INDEX idx_index_queue_lane ON index_queue (status, priority, queued_at);
+
+-- index route (language index that holds each path)
+CREATE TABLE index_route (
+  path VARCHAR(255) PRIMARY KEY,
+  language VARCHAR(20)
 );
-ALTER TABLE index_queue ADD CONSTRAINT pk_index_queue PRIMARY KEY (id, path, operation);
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.etriphany.fulltext.domain.embed;
+
+import org.junit.Test;
+
+import static com.etriphany.fulltext.domain.embed.ContentOperation.*;
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link ContentOperation}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class ContentOperationTest {
+
+    @Test
+    public void checkNothingPending() throws Exception {
+        for (ContentOperation operation : values()) {
+            assertThat(coalesce(null, operation), is(operation));
+        }
+    }
+
+    @Test
+    public void checkDeleteWins() throws Exception {
+        assertThat(coalesce(UPDATE, DELETE), is(DELETE));
+        assertThat(coalesce(DELETE, DELETE), is(DELETE));
+        assertThat(coalesce(ADD, DELETE), is(nullValue()));
+    }
+
+    @Test
+    public void checkUpdates() throws Exception {
+        assertThat(coalesce(ADD, ADD), is(ADD));
+        assertThat(coalesce(ADD, UPDATE), is(UPDATE));
+        assertThat(coalesce(UPDATE, ADD), is(UPDATE));
+        assertThat(coalesce(UPDATE, UPDATE), is(UPDATE));
+        assertThat(coalesce(DELETE, ADD), is(UPDATE));
+        assertThat(coalesce(DELETE, UPDATE), is(UPDATE));
+    }
+}
@@ -0,0 +1,228 @@
+package com.etriphany.fulltext.persistence;
+
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.embed.IndexRequestStatus;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link IndexRequestLog}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class IndexRequestLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexRequestLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        log = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+    }
+
+    @Test
+    public void checkDuplicatesIgnored() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        log.insert(request("1", ContentOperation.ADD));
+        log.insert(request("2", ContentOperation.DELETE));
+        assertThat(log.countInStatus(IndexRequestStatus.QUEUED), is(2));
+    }
+
+    @Test
+    public void checkOperationsCoalesced() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        log.insert(request("2", ContentOperation.ADD));
+        log.insert(request("1", ContentOperation.UPDATE));
+        log.insert(request("2", ContentOperation.DELETE));
+        log.close();
+
+        log = open();
+        List<IndexRequest> claimed = log.claim("a", IndexRequestPriority.BULK, 2, 60000);
+        assertThat(claimed, hasSize(1));
+        assertThat(claimed.get(0).getOperation(), is(ContentOperation.UPDATE));
+        // Locked requests are not folded
+        log.insert(request("1", ContentOperation.DELETE));
+        assertThat(log.countInStatus(IndexRequestStatus.QUEUED), is(1));
+    }
+
+    @Test
+    public void checkQueuedKeptWhileInFlight() throws Exception {
+        log.insert(request("1", ContentOperation.UPDATE));
+        List<IndexRequest> inFlight = log.claim("a", IndexRequestPriority.BULK, 1, 60000);
+
+        // Changed after the in-flight read, then folded into the queued request
+        log.insert(request("1", ContentOperation.UPDATE));
+        log.insert(request("1", ContentOperation.UPDATE));
+        assertThat(log.countInStatus(IndexRequestStatus.QUEUED), is(1));
+
+        log.changeStatus(inFlight.get(0), IndexRequestStatus.CONSUMED);
+        List<IndexRequest> claimed = log.claim("b", IndexRequestPriority.BULK, 1, 60000);
+        assertThat(claimed, hasSize(1));
+        assertThat(claimed.get(0).getOperation(), is(ContentOperation.UPDATE));
+        assertThat(claimed.get(0).getSequence(), is(not(inFlight.get(0).getSequence())));
+    }
+
+    @Test
+    public void checkClaimOldestFirst() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            log.insert(request(String.valueOf(i), ContentOperation.ADD));
+        }
+        List<IndexRequest> first = log.claim("a", IndexRequestPriority.BULK, 3, 60000);
+        List<IndexRequest> second = log.claim("b", IndexRequestPriority.BULK, 3, 60000);
+        assertThat(first.get(0).getContent().getId(), is("0"));
+        assertThat(first, hasSize(3));
+        assertThat(second, hasSize(2));
+        assertThat(log.claim("c", IndexRequestPriority.BULK, 3, 60000), is(empty()));
+        assertThat(log.countInStatus(IndexRequestStatus.LOCKED), is(5));
+    }
+
+    @Test
+    public void checkExpiredLeaseClaimedAgain() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        assertThat(log.claim("a", IndexRequestPriority.BULK, 1, -1), hasSize(1));
+        assertThat(log.claim("b", IndexRequestPriority.BULK, 1, 60000), hasSize(1));
+        assertThat(log.claim("c", IndexRequestPriority.BULK, 1, 60000), is(empty()));
+    }
+
+    @Test
+    public void checkAttemptsCounted() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        assertThat(log.claim("a", IndexRequestPriority.BULK, 1, -1).get(0).getAttempts(), is(1));
+        assertThat(log.claim("b", IndexRequestPriority.BULK, 1, -1).get(0).getAttempts(), is(2));
+        assertThat(log.claimAll("c", 60000), is(1));
+        assertThat(log.listLocked(null).get(0).getAttempts(), is(3));
+    }
+
+    @Test
+    public void checkLanes() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        log.insert(request("2", ContentOperation.ADD));
+        IndexRequest urgent = request("2", ContentOperation.UPDATE);
+        urgent.setPriority(IndexRequestPriority.INTERACTIVE);
+        log.insert(urgent);
+        log.close();
+
+        // Folded into the most urgent lane, lanes survive a restart
+        log = open();
+        assertThat(log.countQueued(IndexRequestPriority.INTERACTIVE), is(1));
+        assertThat(log.countQueued(IndexRequestPriority.BULK), is(1));
+        List<IndexRequest> claimed = log.claim("a", IndexRequestPriority.INTERACTIVE, 5, 60000);
+        assertThat(claimed, hasSize(1));
+        assertThat(claimed.get(0).getContent().getId(), is("2"));
+        assertThat(claimed.get(0).getOperation(), is(ContentOperation.UPDATE));
+    }
+
+    @Test
+    public void checkLockedWalkedOnce() throws Exception {
+        for (int i = 0; i < 120; ++i) {
+            log.insert(request(String.valueOf(i), ContentOperation.ADD));
+        }
+        log.claimAll("a", 60000);
+
+        // Consuming while walking must not shift the pages
+        Set<String> seen = new HashSet<>();
+        List<IndexRequest> page = log.listLocked(null);
+        while (!page.isEmpty()) {
+            for (IndexRequest request : page) {
+                assertThat(seen.add(request.getContent().getId()), is(true));
+                log.changeStatus(request, IndexRequestStatus.CONSUMED);
+            }
+            page = log.listLocked(page.get(page.size() - 1));
+        }
+        assertThat(seen, hasSize(120));
+    }
+
+    @Test
+    public void checkRestart() throws Exception {
+        log.insert(request("1", ContentOperation.ADD));
+        log.insert(request("2", ContentOperation.ADD));
+        log.insert(request("3", ContentOperation.ADD));
+        log.claim("a", IndexRequestPriority.BULK, 3, 60000);
+        log.remove(request("1", ContentOperation.ADD));
+        log.fail(request("2", ContentOperation.ADD), "Too big");
+        log.close();
+
+        // Leases do not survive a restart
+        log = open();
+        assertThat(log.countInStatus(IndexRequestStatus.FAILED), is(1));
+        assertThat(log.countInStatus(IndexRequestStatus.QUEUED), is(1));
+        assertThat(log.claim("b", IndexRequestPriority.BULK, 3, 60000).get(0).getContent().getId(), is("3"));
+    }
+
+    @Test
+    public void checkCompaction() throws Exception {
+        // Fill a few segments, keep one request per segment
+        List<IndexRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 60000; ++i) {
+            requests.add(request(String.valueOf(i), ContentOperation.ADD));
+        }
+        log.insertAll(requests);
+        for (IndexRequest request : requests.subList(1, requests.size() - 1)) {
+            log.remove(request);
+        }
+        long before = countFiles();
+        log.runTask();
+        long after = countFiles();
+        assertThat(after, lessThan(before));
+        log.close();
+
+        log = open();
+        assertThat(log.countInStatus(IndexRequestStatus.QUEUED), is(2));
+        List<IndexRequest> claimed = log.claim("a", IndexRequestPriority.BULK, 2, 60000);
+        assertThat(claimed.get(0).getContent().getId(), is("0"));
+        assertThat(claimed.get(1).getContent().getId(), is("59999"));
+    }
+
+    private IndexRequestLog open() throws Exception {
+        IndexRequestLog log = new IndexRequestLog();
+        ReflectionTestUtils.setField(log, "logPath", folder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(log, "segmentMb", 1);
+        ReflectionTestUtils.setField(log, "sync", false);
+        ReflectionTestUtils.setField(log, "compactRatio", 0.25);
+        log.init();
+        return log;
+    }
+
+    private long countFiles() throws Exception {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.count();
+        }
+    }
+
+    private static IndexRequest request(String id, ContentOperation operation) {
+        Content content = new Content();
+        content.setId(id);
+        content.setPath("/docs/" + id + ".txt");
+
+        IndexRequest request = new IndexRequest();
+        request.setContent(content);
+        request.setOperation(operation);
+        return request;
+    }
+}
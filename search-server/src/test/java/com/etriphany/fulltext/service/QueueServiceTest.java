@@ -0,0 +1,96 @@
+package com.etriphany.fulltext.service;
+
+import com.etriphany.fulltext.domain.embed.Content;
+import com.etriphany.fulltext.domain.embed.ContentOperation;
+import com.etriphany.fulltext.domain.embed.IndexRequestPriority;
+import com.etriphany.fulltext.domain.persistent.IndexRequest;
+import com.etriphany.fulltext.persistence.IndexRequestLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link QueueService}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class QueueServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexRequestLog log;
+
+    private QueueService service;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new IndexRequestLog();
+        ReflectionTestUtils.setField(log, "logPath", folder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(log, "segmentMb", 1);
+        ReflectionTestUtils.setField(log, "sync", false);
+        ReflectionTestUtils.setField(log, "compactRatio", 0.25);
+        log.init();
+
+        service = new QueueService();
+        ReflectionTestUtils.setField(service, "repository", log);
+        ReflectionTestUtils.setField(service, "leaseMs", 60000L);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "interactiveWeight", 4);
+        ReflectionTestUtils.setField(service, "bulkWeight", 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+    }
+
+    @Test
+    public void checkSingleClaimsFallBack() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            log.insert(request(String.valueOf(i), IndexRequestPriority.BULK));
+        }
+
+        // The whole share goes to the empty interactive lane first
+        for (int i = 0; i < 3; ++i) {
+            List<IndexRequest> claimed = service.getBatchAndLock(1);
+            assertThat(claimed, hasSize(1));
+            assertThat(claimed.get(0).getContent().getId(), is(String.valueOf(i)));
+        }
+        assertThat(service.getBatchAndLock(1), is(empty()));
+    }
+
+    @Test
+    public void checkSharedByWeight() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            log.insert(request("i" + i, IndexRequestPriority.INTERACTIVE));
+            log.insert(request("b" + i, IndexRequestPriority.BULK));
+        }
+
+        List<IndexRequest> claimed = service.getBatchAndLock(5);
+        assertThat(claimed, hasSize(5));
+        long bulk = claimed.stream().filter(r -> r.getPriority() == IndexRequestPriority.BULK).count();
+        assertThat(bulk, is(1L));
+    }
+
+    private static IndexRequest request(String id, IndexRequestPriority priority) {
+        Content content = new Content();
+        content.setId(id);
+        content.setPath("/docs/" + id + ".txt");
+
+        IndexRequest request = new IndexRequest();
+        request.setContent(content);
+        request.setOperation(ContentOperation.ADD);
+        request.setPriority(priority);
+        return request;
+    }
+}
@@ -0,0 +1,56 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link ContentReader}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class ContentReaderTest {
+
+    @Test
+    public void checkSampleReplay() throws Exception {
+        ContentReader reader = new ContentReader(new StringReader("lorem ipsum dolor"), 0);
+        assertThat(reader.sample(5), is("lorem"));
+        assertThat(IOUtils.toString(reader), is("lorem ipsum dolor"));
+        assertThat(reader.isTruncated(), is(false));
+    }
+
+    @Test
+    public void checkShortSample() throws Exception {
+        ContentReader reader = new ContentReader(new StringReader("lorem"), 0);
+        assertThat(reader.sample(100), is("lorem"));
+        assertThat(IOUtils.toString(reader), is("lorem"));
+    }
+
+    @Test
+    public void checkTruncation() throws Exception {
+        ContentReader reader = new ContentReader(new StringReader("lorem ipsum dolor"), 11);
+        assertThat(reader.sample(5), is("lorem"));
+        assertThat(IOUtils.toString(reader), is("lorem ipsum"));
+        assertThat(reader.isTruncated(), is(true));
+        assertThat(reader.getDelivered(), is(11L));
+    }
+
+    @Test
+    public void checkExactLimit() throws Exception {
+        ContentReader reader = new ContentReader(new StringReader("lorem"), 5);
+        assertThat(IOUtils.toString(reader), is("lorem"));
+        assertThat(reader.isTruncated(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkLateSample() throws Exception {
+        ContentReader reader = new ContentReader(new StringReader("lorem"), 0);
+        reader.read();
+        reader.sample(5);
+    }
+}
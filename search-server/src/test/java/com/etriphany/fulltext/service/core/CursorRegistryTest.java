@@ -0,0 +1,89 @@
+package com.etriphany.fulltext.service.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link CursorRegistry}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class CursorRegistryTest {
+
+    private CursorRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new CursorRegistry();
+        ReflectionTestUtils.setField(registry, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(registry, "maxCursors", 2);
+    }
+
+    @Test
+    public void checkAcquire() throws Exception {
+        CursorRegistry.Cursor cursor = registry.open(lease(), 42);
+        registry.release(cursor);
+        CursorRegistry.Cursor again = registry.acquire(cursor.getId());
+        assertThat(again, is(sameInstance(cursor)));
+        assertThat(again.getTotal(), is(42));
+        assertThat(registry.acquire("unknown"), is(nullValue()));
+    }
+
+    @Test
+    public void checkIdleEvicted() throws Exception {
+        CursorRegistry.Cursor first = registry.open(lease(), 1);
+        registry.release(first);
+        CursorRegistry.Cursor busy = registry.open(lease(), 1);
+        registry.open(lease(), 1);
+        registry.open(lease(), 1);
+
+        // Least recently used idle cursor goes first, cursors in use are kept
+        assertThat(registry.acquire(first.getId()), is(nullValue()));
+        assertThat(registry.acquire(busy.getId()), is(sameInstance(busy)));
+    }
+
+    @Test
+    public void checkSearcherShared() throws Exception {
+        CursorRegistry.Cursor first = registry.open(lease(), 1);
+        CursorRegistry.Cursor second = registry.open(lease(), 2);
+
+        // Same point in time view, a single pinned searcher
+        assertThat(second.getLeased(), is(sameInstance(first.getLeased())));
+        assertThat(registry.pinned(), is(1));
+
+        // Released along with its last cursor
+        registry.release(first);
+        registry.release(second);
+        registry.open(lease(), 3);
+        assertThat(registry.size(), is(2));
+        assertThat(registry.pinned(), is(1));
+        registry.close();
+        assertThat(registry.pinned(), is(0));
+    }
+
+    @Test
+    public void checkExpired() throws Exception {
+        ReflectionTestUtils.setField(registry, "ttlMs", -1L);
+        CursorRegistry.Cursor cursor = registry.open(lease(), 1);
+        assertThat(registry.acquire(cursor.getId()), is(nullValue()));
+
+        // Pruned only once released
+        registry.runTask();
+        assertThat(registry.size(), is(1));
+        registry.release(cursor);
+        registry.runTask();
+        assertThat(registry.size(), is(0));
+        assertThat(registry.pinned(), is(0));
+    }
+
+    private static LeasedSearcher lease() {
+        return new LeasedSearcher(null, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
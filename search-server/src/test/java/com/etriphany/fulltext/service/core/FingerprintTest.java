@@ -0,0 +1,61 @@
+package com.etriphany.fulltext.service.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link Fingerprint}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class FingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void checkChangedNotHashed() throws Exception {
+        Path path = write("fox", 1000L);
+        Fingerprint indexed = Fingerprint.of(path);
+        write("fox jumps", 2000L);
+
+        Fingerprint current = Fingerprint.of(path);
+        assertThat(current.matches(path, indexed), is(false));
+        assertThat(current.getHash(), is(nullValue()));
+    }
+
+    @Test
+    public void checkTouchedHashed() throws Exception {
+        Path path = write("fox", 1000L);
+        Fingerprint indexed = Fingerprint.of(path);
+
+        // Indexed without hash, inconclusive until the hash is known
+        write("fox", 2000L);
+        Fingerprint current = Fingerprint.of(path);
+        assertThat(current.matches(path, indexed), is(false));
+        assertThat(current.getHash(), is(notNullValue()));
+
+        write("fox", 3000L);
+        indexed = new Fingerprint(current.getSize(), current.getModified(), current.getHash());
+        assertThat(Fingerprint.of(path).matches(path, indexed), is(true));
+        write("cat", 4000L);
+        assertThat(Fingerprint.of(path).matches(path, indexed), is(false));
+    }
+
+    private Path write(String text, long modified) throws Exception {
+        Path path = folder.getRoot().toPath().resolve("content.txt");
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+        return path;
+    }
+}
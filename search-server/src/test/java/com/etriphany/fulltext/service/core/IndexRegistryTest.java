@@ -0,0 +1,69 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link IndexRegistry}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class IndexRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        ParallelSearcherFactory searcherFactory = new ParallelSearcherFactory();
+        ReflectionTestUtils.setField(searcherFactory, "threads", 0);
+        ReflectionTestUtils.setField(searcherFactory, "parallelism", 1);
+        searcherFactory.init();
+
+        registry = new IndexRegistry();
+        ReflectionTestUtils.setField(registry, "indexPathParameter", folder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(registry, "nearRealTime", true);
+        ReflectionTestUtils.setField(registry, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(registry, "searcherFactory", searcherFactory);
+
+        for (String language : Arrays.asList("en", "de")) {
+            Document document = new Document();
+            document.add(new TextField("contents", "fox", Field.Store.NO));
+            registry.getWriter(language).addDocument(document);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.close();
+    }
+
+    @Test
+    public void checkMultipleIndexLeaseReleased() throws Exception {
+        LeasedSearcher leased = registry.acquire(new HashSet<>(Arrays.asList("en", "de")));
+        assertThat(leased.getSearcher().getIndexReader().maxDoc(), is(2));
+        leased.close();
+
+        // Only the searcher managers hold the readers now
+        for (int i = 0; i < leased.getLanguages().size(); ++i) {
+            assertThat(leased.getReader(i).getRefCount(), is(1));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link ParallelSearcherFactory}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class ParallelSearcherFactoryTest {
+
+    private Directory directory;
+
+    private DirectoryReader reader;
+
+    private ParallelSearcherFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        // One segment per commit
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < 10; ++i) {
+                for (int j = 0; j <= i; ++j) {
+                    Document document = new Document();
+                    document.add(new TextField("content", "fox " + (j % 2 == 0 ? "fox" : "dog"), Field.Store.NO));
+                    writer.addDocument(document);
+                }
+                writer.commit();
+            }
+        }
+        reader = DirectoryReader.open(directory);
+
+        factory = new ParallelSearcherFactory();
+        ReflectionTestUtils.setField(factory, "threads", 2);
+        ReflectionTestUtils.setField(factory, "parallelism", 3);
+        factory.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        factory.close();
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void checkSlicesKeepOrder() throws Exception {
+        List<LeafReaderContext[]> slices = ParallelSearcherFactory.split(reader.leaves(), 3);
+        assertThat(slices, hasSize(3));
+        List<LeafReaderContext> leaves = new ArrayList<>();
+        for (LeafReaderContext[] slice : slices) {
+            assertThat(slice.length, greaterThan(0));
+            leaves.addAll(Arrays.asList(slice));
+        }
+        assertThat(leaves, is(reader.leaves()));
+        assertThat(ParallelSearcherFactory.split(reader.leaves(), 20), hasSize(lessThanOrEqualTo(10)));
+        assertThat(ParallelSearcherFactory.split(reader.leaves(), 1), hasSize(1));
+    }
+
+    @Test
+    public void checkSameHitsAsSequential() throws Exception {
+        TermQuery query = new TermQuery(new Term("content", "fox"));
+        IndexSearcher sequential = new IndexSearcher(reader);
+        IndexSearcher parallel = factory.newSearcher(reader, null);
+
+        // Walk all pages, ties must be broken the same way
+        ScoreDoc after = null;
+        int seen = 0;
+        while (true) {
+            TopDocs expected = sequential.searchAfter(after, query, 7);
+            TopDocs actual = parallel.searchAfter(after, query, 7);
+            assertThat(actual.totalHits, is(expected.totalHits));
+            assertThat(actual.scoreDocs.length, is(expected.scoreDocs.length));
+            for (int i = 0; i < expected.scoreDocs.length; ++i) {
+                assertThat(actual.scoreDocs[i].doc, is(expected.scoreDocs[i].doc));
+            }
+            if (expected.scoreDocs.length == 0) {
+                break;
+            }
+            seen += expected.scoreDocs.length;
+            after = expected.scoreDocs[expected.scoreDocs.length - 1];
+        }
+        assertThat(seen, is(55));
+    }
+}
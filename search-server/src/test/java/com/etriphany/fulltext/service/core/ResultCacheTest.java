@@ -0,0 +1,54 @@
+package com.etriphany.fulltext.service.core;
+
+import com.etriphany.fulltext.domain.io.SearchResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link ResultCache}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class ResultCacheTest {
+
+    private ResultCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ResultCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+    }
+
+    @Test
+    public void checkGeneration() throws Exception {
+        SearchResponse response = response();
+        cache.put("fox", "1", response);
+        assertThat(cache.get("fox", "1"), is(sameInstance(response)));
+        // Refreshed searcher
+        assertThat(cache.get("fox", "2"), is(nullValue()));
+        assertThat(cache.getStats().get("hits"), is(1L));
+        assertThat(cache.getStats().get("misses"), is(1L));
+    }
+
+    @Test
+    public void checkLeastRecentlyUsedEvicted() throws Exception {
+        cache.put("a", "1", response());
+        cache.put("b", "1", response());
+        cache.get("a", "1");
+        cache.put("c", "1", response());
+        assertThat(cache.get("a", "1"), is(notNullValue()));
+        assertThat(cache.get("b", "1"), is(nullValue()));
+        assertThat(cache.getStats().get("evictions"), is(1L));
+    }
+
+    private static SearchResponse response() {
+        return new SearchResponse(new ArrayList<>(), 0, "");
+    }
+}
@@ -0,0 +1,110 @@
+package com.etriphany.fulltext.service.core;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+/**
+ * Tester for {@link ScaledScoreCollector}.
+ *
+ * @author cadu.goncalves
+ *
+ */
+public class ScaledScoreCollectorTest {
+
+    private final List<Directory> directories = new ArrayList<>();
+
+    private final List<DirectoryReader> readers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // Same matches, scored on very different ranges
+        readers.add(open(12, "fox"));
+        readers.add(open(7, "fox fox fox jumps over"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (DirectoryReader reader : readers) {
+            reader.close();
+        }
+        for (Directory directory : directories) {
+            directory.close();
+        }
+    }
+
+    @Test
+    public void checkScaledPagesMerged() throws Exception {
+        TermQuery query = new TermQuery(new Term("content", "fox"));
+        int[] bases = {0, readers.get(0).maxDoc()};
+        float[] scales = new float[2];
+        for (int i = 0; i < scales.length; ++i) {
+            scales[i] = 1f / collect(query, i, bases[i], 1f, null).getMaxScore();
+        }
+
+        // Walk all pages, merging the best of each index
+        Set<Integer> seen = new HashSet<>();
+        ScoreDoc after = null;
+        while (true) {
+            List<ScoreDoc> page = new ArrayList<>();
+            for (int i = 0; i < readers.size(); ++i) {
+                TopDocs topDocs = collect(query, i, bases[i], scales[i], after);
+                assertThat(topDocs.totalHits, is((long) readers.get(i).maxDoc()));
+                page.addAll(Arrays.asList(topDocs.scoreDocs));
+            }
+            if (page.isEmpty()) {
+                break;
+            }
+            page.sort(ScaledScoreCollector.BEST_FIRST);
+            page = page.subList(0, Math.min(5, page.size()));
+            for (ScoreDoc scoreDoc : page) {
+                assertThat((double) scoreDoc.score, is(closeTo(1.0, 0.0001)));
+                assertThat(seen.add(scoreDoc.doc), is(true));
+            }
+            after = page.get(page.size() - 1);
+        }
+        assertThat(seen, hasSize(19));
+    }
+
+    private TopDocs collect(TermQuery query, int index, int base, float scale, ScoreDoc after) throws Exception {
+        ScaledScoreCollector collector = new ScaledScoreCollector(5, base, scale, after);
+        new IndexSearcher(readers.get(index)).search(query, collector);
+        return collector.topDocs();
+    }
+
+    private DirectoryReader open(int count, String text) throws Exception {
+        Directory directory = new RAMDirectory();
+        directories.add(directory);
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < count; ++i) {
+                Document document = new Document();
+                document.add(new TextField("content", text, Field.Store.NO));
+                writer.addDocument(document);
+            }
+        }
+        return DirectoryReader.open(directory);
+    }
+}